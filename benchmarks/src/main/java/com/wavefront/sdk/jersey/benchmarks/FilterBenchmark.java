@@ -0,0 +1,171 @@
+package com.wavefront.sdk.jersey.benchmarks;
+
+import com.wavefront.opentracing.WavefrontSpan;
+import com.wavefront.opentracing.WavefrontTracer;
+import com.wavefront.opentracing.reporting.Reporter;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.WavefrontJerseyFilter;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request cost of {@link WavefrontJerseyFilter} by driving in-memory requests
+ * through a Jersey {@link ApplicationHandler}. The {@code none} instrumentation is the baseline
+ * of Jersey itself; the overhead of the filter is the difference to it. Run with {@code -prof gc}
+ * to get the allocated bytes per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+  private static final URI BASE_URI = URI.create("http://localhost/");
+  private static final URI ITEM_URI = BASE_URI.resolve("items/42");
+  private static final URI ERROR_URI = BASE_URI.resolve("items/42/error");
+  private static final URI NESTED_URI = BASE_URI.resolve("items/42/children/7/parts/3");
+
+  /**
+   * none: no filter, metrics: filter without tracer, tracing: filter with tracer,
+   * headerTags: filter with tracer and header tags, allHeaders: filter with tracer passing every
+   * header to the tracer to extract the trace context.
+   */
+  @Param({"none", "metrics", "tracing", "headerTags", "allHeaders"})
+  public String instrumentation;
+
+  /**
+   * Number of request headers, including the trace context headers.
+   */
+  @Param({"6", "46"})
+  public int headers;
+
+  private ApplicationHandler applicationHandler;
+  private NoopSdkReporter reporter;
+  private String[] extraHeaders;
+
+  @Setup
+  public void setup() throws ExecutionException, InterruptedException {
+    extraHeaders = new String[Math.max(0, headers - 6)];
+    for (int i = 0; i < extraHeaders.length; i++) {
+      extraHeaders[i] = "X-Header-" + i;
+    }
+    ResourceConfig resourceConfig = new ResourceConfig(ItemResource.class);
+    if (!"none".equals(instrumentation)) {
+      ApplicationTags applicationTags = new ApplicationTags.Builder("benchmark", "items").
+          cluster("us-west").shard("primary").build();
+      reporter = new NoopSdkReporter();
+      WavefrontJerseyFilter.Builder builder = new WavefrontJerseyFilter.Builder(reporter,
+          applicationTags);
+      if (!"metrics".equals(instrumentation)) {
+        builder.withTracer(new WavefrontTracer.Builder(new NoopSpanReporter(),
+            applicationTags).build());
+      }
+      if ("headerTags".equals(instrumentation)) {
+        builder.headerTags(new HashSet<>(Arrays.asList("X-Tenant", "X-Request-Id")));
+      }
+      if ("allHeaders".equals(instrumentation)) {
+        builder.extractAllHeaders(true);
+      }
+      resourceConfig.register(builder.build());
+    }
+    applicationHandler = new ApplicationHandler(resourceConfig);
+    if (reporter != null) {
+      assertRouteHit(ITEM_URI);
+      assertRouteHit(ERROR_URI);
+      assertRouteHit(NESTED_URI);
+    }
+  }
+
+  /**
+   * Fails unless requests after the first one reuse the metrics of their route, i.e. benchmark
+   * the hit path of the route resolution. Sub-resources served through locators are resolved
+   * on the request path, from a model Jersey may rebuild for every request.
+   */
+  private void assertRouteHit(URI requestUri) throws ExecutionException, InterruptedException {
+    apply(requestUri);
+    long resolvedHandles = reporter.getResolvedHandles();
+    for (int i = 0; i < 10; i++) {
+      apply(requestUri);
+    }
+    if (reporter.getResolvedHandles() != resolvedHandles) {
+      throw new IllegalStateException("Requests to " + requestUri + " rebuild their route");
+    }
+  }
+
+  @Benchmark
+  public ContainerResponse success() throws ExecutionException, InterruptedException {
+    return apply(ITEM_URI);
+  }
+
+  @Benchmark
+  public ContainerResponse error() throws ExecutionException, InterruptedException {
+    return apply(ERROR_URI);
+  }
+
+  @Benchmark
+  public ContainerResponse nestedSubResource() throws ExecutionException, InterruptedException {
+    return apply(NESTED_URI);
+  }
+
+  private ContainerResponse apply(URI requestUri) throws ExecutionException,
+      InterruptedException {
+    ContainerRequest request = new ContainerRequest(BASE_URI, requestUri, "GET", null,
+        new MapPropertiesDelegate(), applicationHandler.getConfiguration());
+    request.header("Accept", "text/plain");
+    request.header("User-Agent", "jmh");
+    request.header("X-Tenant", "tenant-1");
+    request.header("X-Request-Id", "0af7651916cd43dd8448eb211c80319c");
+    request.header("wf-ot-traceid", "0af76519-16cd-43dd-8448-eb211c80319c");
+    request.header("wf-ot-spanid", "b7ad6b71-6920-4a3b-8d41-7d10c4b1b6d8");
+    for (String extraHeader : extraHeaders) {
+      request.header(extraHeader, "value");
+    }
+    return applicationHandler.apply(request).get();
+  }
+
+  private static class NoopSpanReporter implements Reporter {
+
+    @Override
+    public void report(WavefrontSpan span) {
+      // no-op
+    }
+
+    @Override
+    public int getFailureCount() {
+      return 0;
+    }
+
+    @Override
+    public void close() {
+      // no-op
+    }
+
+    @Override
+    public void flush() {
+      // no-op
+    }
+  }
+}
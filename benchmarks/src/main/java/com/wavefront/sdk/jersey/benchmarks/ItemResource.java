@@ -0,0 +1,51 @@
+package com.wavefront.sdk.jersey.benchmarks;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Resources served by the benchmarked application.
+ */
+@Path("/items")
+@Produces(MediaType.TEXT_PLAIN)
+public class ItemResource {
+
+  @GET
+  @Path("/{id}")
+  public String get(@PathParam("id") String id) {
+    return id;
+  }
+
+  @GET
+  @Path("/{id}/error")
+  public Response error() {
+    return Response.serverError().build();
+  }
+
+  // sub-resource locator, resolved at runtime: /items/{id}/children/{childId}/parts/{partId}
+  @Path("/{id}/children")
+  public ChildResource children() {
+    return new ChildResource();
+  }
+
+  public static class ChildResource {
+
+    @Path("/{childId}/parts")
+    public PartResource parts() {
+      return new PartResource();
+    }
+  }
+
+  public static class PartResource {
+
+    @GET
+    @Path("/{partId}")
+    public String get(@PathParam("partId") String partId) {
+      return partId;
+    }
+  }
+}
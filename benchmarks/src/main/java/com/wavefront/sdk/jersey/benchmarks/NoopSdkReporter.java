@@ -0,0 +1,107 @@
+package com.wavefront.sdk.jersey.benchmarks;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reporter which discards everything, so that benchmarks only measure the filter itself. Counts
+ * the handles it resolves, which the filter only does when it builds the metrics of a route.
+ */
+public class NoopSdkReporter implements SdkReporter, MetricHandleResolver {
+  private static final NoopHandle NOOP_HANDLE = new NoopHandle();
+
+  private final LongAdder resolvedHandles = new LongAdder();
+
+  /**
+   * @return number of handles resolved so far.
+   */
+  public long getResolvedHandles() {
+    return resolvedHandles.sum();
+  }
+
+  @Override
+  public CounterHandle counter(MetricName metricName) {
+    resolvedHandles.increment();
+    return NOOP_HANDLE;
+  }
+
+  @Override
+  public CounterHandle deltaCounter(MetricName metricName) {
+    resolvedHandles.increment();
+    return NOOP_HANDLE;
+  }
+
+  @Override
+  public HistogramHandle histogram(MetricName metricName) {
+    resolvedHandles.increment();
+    return NOOP_HANDLE;
+  }
+
+  @Override
+  public GaugeHandle gauge(MetricName metricName) {
+    resolvedHandles.increment();
+    return NOOP_HANDLE;
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName) {
+    // no-op
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName, long n) {
+    // no-op
+  }
+
+  @Override
+  public void incrementDeltaCounter(MetricName metricName) {
+    // no-op
+  }
+
+  @Override
+  public void registerGauge(MetricName metricName, AtomicInteger value) {
+    // no-op
+  }
+
+  @Override
+  public void updateHistogram(MetricName metricName, long latencyMillis) {
+    // no-op
+  }
+
+  @Override
+  public void start() {
+    // no-op
+  }
+
+  @Override
+  public void stop() {
+    // no-op
+  }
+
+  private static final class NoopHandle implements CounterHandle, HistogramHandle, GaugeHandle {
+
+    @Override
+    public void inc() {
+      // no-op
+    }
+
+    @Override
+    public void inc(long n) {
+      // no-op
+    }
+
+    @Override
+    public void update(long value) {
+      // no-op
+    }
+
+    @Override
+    public void dec() {
+      // no-op
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.wavefront.sdk.jersey;
+
+/**
+ * Levels at which {@link WavefrontJerseyFilter} reports the response counters, see
+ * {@link WavefrontJerseyFilter.Builder#aggregationLevels(java.util.Set)}. Every level is reported
+ * by default; levels which Wavefront can aggregate at query time can be disabled to save the
+ * updates of their counters on every request.
+ */
+public enum AggregationLevel {
+  /**
+   * Counters of this source: {@code .cumulative}, {@code .errors} and
+   * {@code .aggregated_per_source}.
+   */
+  SOURCE,
+  /**
+   * {@code .aggregated_per_shard} delta counters, if the application has a shard.
+   */
+  SHARD,
+  /**
+   * {@code .aggregated_per_service} delta counters.
+   */
+  SERVICE,
+  /**
+   * {@code .aggregated_per_cluster} delta counters, if the application has a cluster.
+   */
+  CLUSTER,
+  /**
+   * {@code .aggregated_per_application} delta counters.
+   */
+  APPLICATION
+}
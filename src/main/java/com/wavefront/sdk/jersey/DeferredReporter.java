@@ -0,0 +1,265 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Reporter which is usable before the reporter it delegates to is built, see
+ * {@link WavefrontJerseyFactory}. Counter and histogram updates are dropped until then and
+ * counted, the count is reported once the reporter is built. Gauges are tracked from the start
+ * and handed over to the gauges of the reporter once it is built, so that requests which started
+ * before do not leave them unbalanced.
+ */
+final class DeferredReporter implements SdkReporter, MetricHandleResolver {
+  private final MetricName droppedUpdatesName;
+  private final LongAdder droppedUpdates = new LongAdder();
+  private final List<Runnable> pendingGauges = new ArrayList<>();
+  private volatile SdkReporter delegate;
+  private volatile MetricHandleResolver resolver;
+
+  /**
+   * @param droppedUpdatesName name of the counter of the updates dropped before the reporter is
+   *                           built.
+   */
+  DeferredReporter(MetricName droppedUpdatesName) {
+    this.droppedUpdatesName = droppedUpdatesName;
+  }
+
+  /**
+   * @param reporter reporter to delegate to from now on.
+   */
+  void complete(SdkReporter reporter) {
+    synchronized (pendingGauges) {
+      resolver = MetricHandleResolver.of(reporter);
+      delegate = reporter;
+      for (Runnable gauge : pendingGauges) {
+        gauge.run();
+      }
+      pendingGauges.clear();
+    }
+    // updates racing with the completion may still be dropped after this, and are not reported
+    long dropped = droppedUpdates.sum();
+    if (dropped > 0) {
+      resolver.counter(droppedUpdatesName).inc(dropped);
+    }
+  }
+
+  /**
+   * @return the number of counter and histogram updates dropped so far.
+   */
+  long getDroppedUpdates() {
+    return droppedUpdates.sum();
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName) {
+    SdkReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.incrementCounter(metricName);
+    } else {
+      droppedUpdates.increment();
+    }
+  }
+
+  @Override
+  public void incrementCounter(MetricName metricName, long n) {
+    SdkReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.incrementCounter(metricName, n);
+    } else {
+      droppedUpdates.increment();
+    }
+  }
+
+  @Override
+  public void incrementDeltaCounter(MetricName metricName) {
+    SdkReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.incrementDeltaCounter(metricName);
+    } else {
+      droppedUpdates.increment();
+    }
+  }
+
+  @Override
+  public void registerGauge(MetricName metricName, AtomicInteger value) {
+    synchronized (pendingGauges) {
+      if (delegate == null) {
+        pendingGauges.add(() -> delegate.registerGauge(metricName, value));
+      } else {
+        delegate.registerGauge(metricName, value);
+      }
+    }
+  }
+
+  @Override
+  public void updateHistogram(MetricName metricName, long value) {
+    SdkReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.updateHistogram(metricName, value);
+    } else {
+      droppedUpdates.increment();
+    }
+  }
+
+  @Override
+  public CounterHandle counter(MetricName metricName) {
+    return new DeferredHandle(metricName, MetricHandleResolver::counter);
+  }
+
+  @Override
+  public CounterHandle deltaCounter(MetricName metricName) {
+    return new DeferredHandle(metricName, MetricHandleResolver::deltaCounter);
+  }
+
+  @Override
+  public HistogramHandle histogram(MetricName metricName) {
+    return new DeferredHandle(metricName, MetricHandleResolver::histogram);
+  }
+
+  /**
+   * Gauges count from the start, the gauge of the reporter takes over once it is built.
+   */
+  @Override
+  public GaugeHandle gauge(MetricName metricName) {
+    synchronized (pendingGauges) {
+      MetricHandleResolver current = resolver;
+      if (current != null) {
+        return current.gauge(metricName);
+      }
+      DeferredGauge gauge = new DeferredGauge();
+      pendingGauges.add(() -> gauge.complete(resolver.gauge(metricName)));
+      return gauge;
+    }
+  }
+
+  @Override
+  public void start() {
+    // the delegate is started by whoever builds it
+  }
+
+  @Override
+  public void stop() {
+    SdkReporter reporter = delegate;
+    if (reporter != null) {
+      reporter.stop();
+    }
+  }
+
+  /**
+   * Handle which drops updates until the reporter is built, and resolves the handle of the
+   * reporter on the first update after.
+   */
+  private final class DeferredHandle implements CounterHandle, HistogramHandle {
+    private final MetricName metricName;
+    private final BiFunction<MetricHandleResolver, MetricName, Object> resolve;
+    private volatile Object handle;
+
+    DeferredHandle(MetricName metricName,
+                   BiFunction<MetricHandleResolver, MetricName, Object> resolve) {
+      this.metricName = metricName;
+      this.resolve = resolve;
+    }
+
+    private Object handle() {
+      Object toReturn = handle;
+      if (toReturn == null) {
+        MetricHandleResolver current = resolver;
+        if (current == null) {
+          droppedUpdates.increment();
+          return null;
+        }
+        // the reporter resolves the same metric for the same name, so racing here is harmless
+        toReturn = resolve.apply(current, metricName);
+        handle = toReturn;
+      }
+      return toReturn;
+    }
+
+    @Override
+    public void inc() {
+      CounterHandle counter = (CounterHandle) handle();
+      if (counter != null) {
+        counter.inc();
+      }
+    }
+
+    @Override
+    public void inc(long n) {
+      CounterHandle counter = (CounterHandle) handle();
+      if (counter != null) {
+        counter.inc(n);
+      }
+    }
+
+    @Override
+    public void update(long value) {
+      HistogramHandle histogram = (HistogramHandle) handle();
+      if (histogram != null) {
+        histogram.update(value);
+      }
+    }
+  }
+
+  /**
+   * Gauge counting in a pending balance until the gauge of the reporter is registered, which then
+   * takes over the balance and every later update.
+   */
+  private static final class DeferredGauge implements GaugeHandle {
+    // the pending balance is sealed once handed over, later updates go to the gauge
+    private static final long HANDED_OVER = Long.MIN_VALUE;
+    private final AtomicLong pending = new AtomicLong();
+    // set before the pending balance is sealed
+    private volatile GaugeHandle gauge;
+
+    void complete(GaugeHandle gauge) {
+      this.gauge = gauge;
+      long balance = pending.getAndSet(HANDED_OVER);
+      for (; balance > 0; balance--) {
+        gauge.inc();
+      }
+      for (; balance < 0; balance++) {
+        gauge.dec();
+      }
+    }
+
+    @Override
+    public void inc() {
+      if (!addPending(1)) {
+        gauge.inc();
+      }
+    }
+
+    @Override
+    public void dec() {
+      if (!addPending(-1)) {
+        gauge.dec();
+      }
+    }
+
+    /**
+     * @return false if the balance has been handed over to the gauge of the reporter.
+     */
+    private boolean addPending(long delta) {
+      if (gauge != null) {
+        return false;
+      }
+      long current;
+      do {
+        current = pending.get();
+        if (current == HANDED_OVER) {
+          return false;
+        }
+      } while (!pending.compareAndSet(current, current + delta));
+      return true;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.wavefront.sdk.jersey;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.noop.NoopTracerFactory;
+import io.opentracing.propagation.Format;
+
+/**
+ * Tracer which is usable before the tracer it delegates to is built, see
+ * {@link WavefrontJerseyFactory}. Spans started before then are no-op spans.
+ */
+final class DeferredTracer implements Tracer {
+  private volatile Tracer delegate = NoopTracerFactory.create();
+
+  /**
+   * @param tracer tracer to delegate to from now on.
+   */
+  void complete(Tracer tracer) {
+    delegate = tracer;
+  }
+
+  @Override
+  public ScopeManager scopeManager() {
+    return delegate.scopeManager();
+  }
+
+  @Override
+  public Span activeSpan() {
+    return delegate.activeSpan();
+  }
+
+  @Override
+  public Scope activateSpan(Span span) {
+    return delegate.activateSpan(span);
+  }
+
+  @Override
+  public SpanBuilder buildSpan(String operationName) {
+    return delegate.buildSpan(operationName);
+  }
+
+  @Override
+  public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+    delegate.inject(spanContext, format, carrier);
+  }
+
+  @Override
+  public <C> SpanContext extract(Format<C> format, C carrier) {
+    return delegate.extract(format, carrier);
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+}
@@ -0,0 +1,120 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.opentracing.SpanContext;
+
+/**
+ * Keeps the slowest traced requests of a route and status code per minute, the bin width of the
+ * reported histograms. Once the reservoir is full, requests which are not slower than the fastest
+ * kept one are rejected without locking, so only a handful of requests per minute take the lock.
+ */
+final class ExemplarReservoir {
+  private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final int status;
+  private final LatencyExemplar[] current;
+  // a lock rather than synchronized, which would pin the carrier of a virtual thread
+  private final ReentrantLock lock = new ReentrantLock();
+  private int count;
+  // written before minute, so that a reader seeing the current minute sees its threshold
+  private volatile long threshold = Long.MIN_VALUE;
+  private volatile long minute = -1;
+  private volatile List<LatencyExemplar> previous = Collections.emptyList();
+
+  /**
+   * @param status HTTP status code of the requests.
+   * @param size   maximum number of exemplars kept per minute.
+   */
+  ExemplarReservoir(int status, int size) {
+    this.status = status;
+    this.current = new LatencyExemplar[size];
+  }
+
+  /**
+   * @param latency latency of the request.
+   * @param context span context of the request.
+   * @return true if the request is one of the slowest of the current minute so far.
+   */
+  boolean offer(long latency, SpanContext context) {
+    long now = System.currentTimeMillis();
+    long nowMinute = now / MINUTE_MILLIS;
+    if (nowMinute == minute && latency <= threshold) {
+      return false;
+    }
+    lock.lock();
+    try {
+      if (nowMinute != minute) {
+        rotate(nowMinute);
+      }
+      int index = count;
+      if (count == current.length) {
+        index = fastest();
+        if (latency <= current[index].getLatency()) {
+          return false;
+        }
+      } else {
+        count++;
+      }
+      current[index] = new LatencyExemplar(latency, status, context.toTraceId(), now);
+      if (count == current.length) {
+        threshold = current[fastest()].getLatency();
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return exemplars of the previous and current minute.
+   */
+  List<LatencyExemplar> get() {
+    lock.lock();
+    try {
+      long nowMinute = System.currentTimeMillis() / MINUTE_MILLIS;
+      List<LatencyExemplar> toReturn = new ArrayList<>();
+      if (minute == nowMinute) {
+        toReturn.addAll(previous);
+        toReturn.addAll(snapshot());
+      } else if (minute == nowMinute - 1) {
+        toReturn.addAll(snapshot());
+      }
+      return toReturn;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void rotate(long nowMinute) {
+    previous = minute == nowMinute - 1 ? snapshot() : Collections.emptyList();
+    for (int i = 0; i < count; i++) {
+      current[i] = null;
+    }
+    count = 0;
+    threshold = Long.MIN_VALUE;
+    minute = nowMinute;
+  }
+
+  private List<LatencyExemplar> snapshot() {
+    List<LatencyExemplar> toReturn = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      toReturn.add(current[i]);
+    }
+    return toReturn;
+  }
+
+  private int fastest() {
+    int toReturn = 0;
+    for (int i = 1; i < count; i++) {
+      if (current[i].getLatency() < current[toReturn].getLatency()) {
+        toReturn = i;
+      }
+    }
+    return toReturn;
+  }
+}
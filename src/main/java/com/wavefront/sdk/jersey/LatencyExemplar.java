@@ -0,0 +1,53 @@
+package com.wavefront.sdk.jersey;
+
+/**
+ * Traced request kept as an exemplar of the latency histogram of its route, see
+ * {@link WavefrontJerseyFilter.Builder#latencyExemplars(int)}.
+ */
+public final class LatencyExemplar {
+  private final long latency;
+  private final int status;
+  private final String traceId;
+  private final long timestampMillis;
+
+  LatencyExemplar(long latency, int status, String traceId, long timestampMillis) {
+    this.latency = latency;
+    this.status = status;
+    this.traceId = traceId;
+    this.timestampMillis = timestampMillis;
+  }
+
+  /**
+   * @return latency of the request, in the latency unit of the filter.
+   */
+  public long getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return HTTP status code of the response.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return trace id of the request's span.
+   */
+  public String getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * @return epoch milliseconds at which the response was filtered.
+   */
+  public long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyExemplar{latency=" + latency + ", status=" + status + ", traceId=" + traceId +
+        ", timestampMillis=" + timestampMillis + "}";
+  }
+}
@@ -0,0 +1,34 @@
+package com.wavefront.sdk.jersey;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency service level objective of a resource method, or of every resource method of a
+ * resource class. Responses slower than the threshold or with a 5xx status code count against
+ * the objective, see {@link WavefrontJerseyFilter#getSloBurnRate(String, long, TimeUnit)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface LatencySlo {
+
+  /**
+   * @return latency threshold of a good response.
+   */
+  long threshold();
+
+  /**
+   * @return unit of the threshold.
+   */
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+  /**
+   * @return targeted ratio of good responses, in (0, 1).
+   */
+  double objective() default 0.99;
+}
@@ -0,0 +1,123 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the good and bad responses of a route against its latency objective. Every response is
+ * counted by a delta counter and in an in-memory rolling window of the last hour, from which
+ * burn rates are computed without querying histograms.
+ */
+final class LatencySloTracker {
+  private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final int BUCKETS = 360;
+  private static final long NO_EPOCH = Long.MIN_VALUE;
+
+  /**
+   * Latency objective of a route.
+   */
+  static final class Config {
+    private final long threshold;
+    private final TimeUnit unit;
+    private final double objective;
+
+    Config(long threshold, TimeUnit unit, double objective) {
+      this.threshold = threshold;
+      this.unit = unit;
+      this.objective = objective;
+    }
+
+    static Config of(LatencySlo latencySlo) {
+      return new Config(latencySlo.threshold(), latencySlo.unit(), latencySlo.objective());
+    }
+
+    /**
+     * @return the threshold in the given unit, rounded up so that a threshold finer than the unit
+     * does not become 0.
+     */
+    long threshold(TimeUnit unit) {
+      long converted = unit.convert(threshold, this.unit);
+      return this.unit.convert(converted, unit) < threshold ? converted + 1 : converted;
+    }
+
+    double getObjective() {
+      return objective;
+    }
+  }
+
+  private final long threshold;
+  private final double objective;
+  private final CounterHandle goodCounter;
+  private final CounterHandle badCounter;
+  // bucket i holds the responses of the 10 second epoch epochs[i]
+  private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray good = new AtomicLongArray(BUCKETS);
+  private final AtomicLongArray bad = new AtomicLongArray(BUCKETS);
+
+  /**
+   * @param threshold   latency threshold, in the unit of the recorded latencies.
+   * @param objective   targeted ratio of good responses.
+   * @param goodCounter counts responses meeting the objective.
+   * @param badCounter  counts responses missing the objective.
+   */
+  LatencySloTracker(long threshold, double objective, CounterHandle goodCounter,
+                    CounterHandle badCounter) {
+    this.threshold = threshold;
+    this.objective = objective;
+    this.goodCounter = goodCounter;
+    this.badCounter = badCounter;
+    for (int i = 0; i < BUCKETS; i++) {
+      epochs.lazySet(i, NO_EPOCH);
+    }
+  }
+
+  void record(long latency, int status) {
+    boolean isGood = status < 500 && latency <= threshold;
+    if (isGood) {
+      goodCounter.inc();
+    } else {
+      badCounter.inc();
+    }
+    long epoch = Math.floorDiv(System.nanoTime(), BUCKET_NANOS);
+    int index = (int) Math.floorMod(epoch, (long) BUCKETS);
+    long current = epochs.get(index);
+    if (current != epoch && epochs.compareAndSet(index, current, epoch)) {
+      // first response of a new epoch, drop the one of an hour ago. Responses racing with the
+      // reset may be lost, which is fine for a rate
+      good.set(index, 0);
+      bad.set(index, 0);
+    }
+    if (isGood) {
+      good.incrementAndGet(index);
+    } else {
+      bad.incrementAndGet(index);
+    }
+  }
+
+  /**
+   * @param windowNanos window to compute the burn rate over, at most an hour.
+   * @return ratio of the bad responses within the window to the error budget, i.e. 1 if the
+   * budget is consumed exactly at the sustainable rate, 0 without responses.
+   */
+  double burnRate(long windowNanos) {
+    long epoch = Math.floorDiv(System.nanoTime(), BUCKET_NANOS);
+    int buckets = (int) Math.min(BUCKETS, Math.max(1,
+        (windowNanos + BUCKET_NANOS - 1) / BUCKET_NANOS));
+    long goodCount = 0;
+    long badCount = 0;
+    for (long e = epoch - buckets + 1; e <= epoch; e++) {
+      int index = (int) Math.floorMod(e, (long) BUCKETS);
+      if (epochs.get(index) == e) {
+        goodCount += good.get(index);
+        badCount += bad.get(index);
+      }
+    }
+    long total = goodCount + badCount;
+    if (total == 0) {
+      return 0;
+    }
+    return ((double) badCount / total) / (1 - objective);
+  }
+}
@@ -0,0 +1,120 @@
+package com.wavefront.sdk.jersey;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the concurrency of every route served by {@link WavefrontJerseyFilter}. Requests beyond
+ * the limit are rejected before reaching the resource, with a {@code 503 Service Unavailable}
+ * response and a {@code Retry-After} header, and counted by the {@code .shed} counters.
+ *
+ * The limit of a route is the {@link Builder#Builder(int) maximum number of inflight requests}.
+ * With a {@link Builder#latencyTarget(long, TimeUnit) latency target}, it shrinks in proportion to
+ * how far the 99th percentile latency of the route over the rolling
+ * {@link Builder#window(long, TimeUnit) window} exceeds the target, down to a single request, and
+ * grows back as the latency recovers.
+ */
+public final class LoadSheddingPolicy {
+  private final int maxInflightPerRoute;
+  private final long latencyTarget;
+  private final TimeUnit latencyTargetUnit;
+  private final long windowNanos;
+  private final int minSamples;
+  private final int retryAfterSeconds;
+
+  private LoadSheddingPolicy(int maxInflightPerRoute, long latencyTarget,
+                             TimeUnit latencyTargetUnit, long windowNanos, int minSamples,
+                             int retryAfterSeconds) {
+    this.maxInflightPerRoute = maxInflightPerRoute;
+    this.latencyTarget = latencyTarget;
+    this.latencyTargetUnit = latencyTargetUnit;
+    this.windowNanos = windowNanos;
+    this.minSamples = minSamples;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public static final class Builder {
+    private final int maxInflightPerRoute;
+    private long latencyTarget = 0;
+    private TimeUnit latencyTargetUnit = TimeUnit.MILLISECONDS;
+    private long windowNanos = TimeUnit.SECONDS.toNanos(10);
+    private int minSamples = 100;
+    private int retryAfterSeconds = 1;
+
+    /**
+     * @param maxInflightPerRoute maximum number of concurrent requests per route.
+     */
+    public Builder(int maxInflightPerRoute) {
+      Preconditions.checkArgument(maxInflightPerRoute > 0, "Invalid maxInflightPerRoute");
+      this.maxInflightPerRoute = maxInflightPerRoute;
+    }
+
+    /**
+     * @param latencyTarget 99th percentile latency above which the concurrency limit of a route
+     *                      shrinks, none by default.
+     * @param unit          unit of the target.
+     * @return {@code this}.
+     */
+    public Builder latencyTarget(long latencyTarget, TimeUnit unit) {
+      Preconditions.checkArgument(latencyTarget > 0, "Invalid latencyTarget");
+      Preconditions.checkNotNull(unit, "Invalid unit");
+      this.latencyTarget = latencyTarget;
+      this.latencyTargetUnit = unit;
+      return this;
+    }
+
+    /**
+     * @param window rolling window of the latency percentile, 10 seconds by default.
+     * @param unit   unit of the window.
+     * @return {@code this}.
+     */
+    public Builder window(long window, TimeUnit unit) {
+      Preconditions.checkArgument(unit.toMillis(window) >= 100, "Invalid window");
+      this.windowNanos = unit.toNanos(window);
+      return this;
+    }
+
+    /**
+     * @param minSamples minimum number of responses within the window for the latency target to
+     *                   apply, 100 by default.
+     * @return {@code this}.
+     */
+    public Builder minSamples(int minSamples) {
+      Preconditions.checkArgument(minSamples > 0, "Invalid minSamples");
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * @param retryAfterSeconds value of the {@code Retry-After} header of rejected requests, 1 by
+     *                          default.
+     * @return {@code this}.
+     */
+    public Builder retryAfterSeconds(int retryAfterSeconds) {
+      Preconditions.checkArgument(retryAfterSeconds >= 0, "Invalid retryAfterSeconds");
+      this.retryAfterSeconds = retryAfterSeconds;
+      return this;
+    }
+
+    public LoadSheddingPolicy build() {
+      return new LoadSheddingPolicy(maxInflightPerRoute, latencyTarget, latencyTargetUnit,
+          windowNanos, minSamples, retryAfterSeconds);
+    }
+  }
+
+  int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * @param latencyUnit unit of the latencies recorded for the route.
+   * @return the load of a new route.
+   */
+  RouteLoad newRouteLoad(TimeUnit latencyUnit) {
+    // a target below the latency unit is 1, 0 is no target
+    long target = latencyTarget == 0 ? 0 :
+        Math.max(1, latencyUnit.convert(latencyTarget, latencyTargetUnit));
+    return new RouteLoad(maxInflightPerRoute, target, windowNanos, minSamples);
+  }
+}
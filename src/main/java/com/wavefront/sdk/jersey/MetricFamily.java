@@ -0,0 +1,33 @@
+package com.wavefront.sdk.jersey;
+
+/**
+ * Families of metrics reported by {@link WavefrontJerseyFilter}, see
+ * {@link WavefrontJerseyFilter.Builder#metricFamilies(java.util.Set)}. Every family is reported
+ * by default.
+ */
+public enum MetricFamily {
+  /**
+   * Counters of completed responses, per route and status code and overall.
+   */
+  COMPLETED,
+  /**
+   * Counters of error responses, per route and overall.
+   */
+  ERRORS,
+  /**
+   * {@code .latency} histograms.
+   */
+  LATENCY,
+  /**
+   * {@code .total_time} counters.
+   */
+  TOTAL_TIME,
+  /**
+   * {@code .cpu_ns} histograms. CPU time is not measured if disabled.
+   */
+  CPU_TIME,
+  /**
+   * {@code .inflight} gauges, per route and overall.
+   */
+  INFLIGHT
+}
@@ -3,7 +3,6 @@ package com.wavefront.sdk.jersey;
 import com.wavefront.sdk.common.Pair;
 
 import org.apache.commons.lang3.StringUtils;
-import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.model.Resource;
 
 import java.util.Optional;
@@ -21,25 +20,22 @@ abstract class MetricNameUtils {
   /**
    * Provides the api path which is metric name friendly and the matching api path.
    *
-   * @param request jersey container request.
+   * @param matchedResource jersey model resource matched by the request.
+   * @param httpMethod      Jersey API HTTP request method.
    * @return API path for use in metric name.
    */
-  static Optional<Pair<String, String>> metricNameAndPath(ContainerRequest request) {
-    Resource matchedResource = request.getUriInfo().getMatchedModelResource();
-    if (matchedResource != null) {
-      StringBuilder matchingPath = new StringBuilder(stripLeadingAndTrailingSlashes(
-          matchedResource.getPath()));
-      // prepend the path for every parent
-      while (matchedResource.getParent() != null) {
-        matchedResource = matchedResource.getParent();
-        matchingPath.insert(0, stripLeadingAndTrailingSlashes(matchedResource.getPath()) + "/");
-      }
-      Optional<String> optionalMetricName = metricName(request.getMethod(),
-          matchingPath.toString());
-      return optionalMetricName.map(
-          metricName -> new Pair<>(metricName, matchingPath.toString()));
+  static Optional<Pair<String, String>> metricNameAndPath(Resource matchedResource,
+                                                          String httpMethod) {
+    StringBuilder matchingPath = new StringBuilder(stripLeadingAndTrailingSlashes(
+        matchedResource.getPath()));
+    // prepend the path for every parent
+    while (matchedResource.getParent() != null) {
+      matchedResource = matchedResource.getParent();
+      matchingPath.insert(0, stripLeadingAndTrailingSlashes(matchedResource.getPath()) + "/");
     }
-    return Optional.empty();
+    Optional<String> optionalMetricName = metricName(httpMethod, matchingPath.toString());
+    return optionalMetricName.map(
+        metricName -> new Pair<>(metricName, matchingPath.toString()));
   }
 
   /**
@@ -0,0 +1,61 @@
+package com.wavefront.sdk.jersey;
+
+import com.google.common.base.Preconditions;
+
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Resource serving the current metrics of a {@link WavefrontJerseyReporter} as JSON, see
+ * {@link WavefrontJerseyReporter#writeSnapshot}. Meant for local inspection and tests, register
+ * it only where it may be exposed.
+ */
+@Path("wavefront/metrics")
+public class MetricsSnapshotResource {
+  private final Supplier<WavefrontJerseyReporter> reporter;
+
+  public MetricsSnapshotResource(WavefrontJerseyReporter reporter) {
+    Preconditions.checkNotNull(reporter, "Invalid reporter");
+    this.reporter = () -> reporter;
+  }
+
+  /**
+   * @param reporter supplies the reporter, or null while it is not built yet.
+   */
+  MetricsSnapshotResource(Supplier<WavefrontJerseyReporter> reporter) {
+    this.reporter = reporter;
+  }
+
+  /**
+   * @param prefix only return the metrics whose name starts with this prefix, if set.
+   * @return the metrics, or 503 if the reporter is not built yet.
+   */
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getSnapshot(@QueryParam("prefix") String prefix) {
+    WavefrontJerseyReporter wfJerseyReporter = reporter.get();
+    if (wfJerseyReporter == null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+    StreamingOutput snapshot = outputStream -> {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream,
+          StandardCharsets.UTF_8));
+      wfJerseyReporter.writeSnapshot(writer, prefix);
+      writer.flush();
+    };
+    return Response.ok(snapshot).build();
+  }
+}
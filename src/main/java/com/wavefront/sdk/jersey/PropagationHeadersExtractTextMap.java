@@ -0,0 +1,93 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import io.opentracing.propagation.TextMap;
+
+/**
+ * Carrier passing only the trace context headers of a request to {@code Tracer.extract()}.
+ * Headers with a known name are looked up directly, the header names are only scanned for the
+ * baggage prefixes, so the other headers of a request cost neither an entry nor a lookup.
+ * Jersey's request headers are case-insensitive, as are the lookups.
+ */
+final class PropagationHeadersExtractTextMap implements TextMap {
+  /**
+   * Headers of the propagators of {@code WavefrontTracer}: its own and the Jaeger one.
+   */
+  static final String[] WAVEFRONT_HEADER_NAMES =
+      {"wf-ot-traceid", "wf-ot-spanid", "wf-ot-sample", "uber-trace-id"};
+  /**
+   * Baggage header prefixes of the propagators of {@code WavefrontTracer}.
+   */
+  static final String[] WAVEFRONT_HEADER_PREFIXES = {"wf-ot-", "uberctx-"};
+
+  private final MultivaluedMap<String, String> headers;
+  private final String[] headerNames;
+  private final String[] headerPrefixes;
+
+  PropagationHeadersExtractTextMap(MultivaluedMap<String, String> headers, String[] headerNames,
+                                   String[] headerPrefixes) {
+    this.headers = headers;
+    this.headerNames = headerNames;
+    this.headerPrefixes = headerPrefixes;
+  }
+
+  @Override
+  public Iterator<Map.Entry<String, String>> iterator() {
+    List<Map.Entry<String, String>> entries = null;
+    for (String headerName : headerNames) {
+      String value = headers.getFirst(headerName);
+      if (value != null) {
+        entries = add(entries, headerName, value);
+      }
+    }
+    if (headerPrefixes.length > 0) {
+      for (String key : headers.keySet()) {
+        if (hasPrefix(key) && !isHeaderName(key)) {
+          entries = add(entries, key, headers.getFirst(key));
+        }
+      }
+    }
+    return entries == null ? Collections.emptyIterator() : entries.iterator();
+  }
+
+  @Override
+  public void put(String key, String value) {
+    throw new UnsupportedOperationException(PropagationHeadersExtractTextMap.class.getName() +
+        " should only be used with Tracer.extract()");
+  }
+
+  private static List<Map.Entry<String, String>> add(List<Map.Entry<String, String>> entries,
+                                                     String key, String value) {
+    if (entries == null) {
+      entries = new ArrayList<>(4);
+    }
+    entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+    return entries;
+  }
+
+  private boolean hasPrefix(String key) {
+    for (String prefix : headerPrefixes) {
+      if (key.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isHeaderName(String key) {
+    for (String headerName : headerNames) {
+      if (key.equalsIgnoreCase(headerName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
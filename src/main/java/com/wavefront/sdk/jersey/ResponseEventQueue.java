@@ -0,0 +1,200 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded lock-free multi producer, single consumer ring buffer of response events. Request
+ * threads publish a fixed size event per response, a dedicated daemon thread drains the events in
+ * batches and records their metrics. Slots are preallocated, so publishing does not allocate.
+ *
+ * The consumer backs off while the queue is idle, so a response may be recorded up to 64
+ * milliseconds after it was published. Once closed, the queue rejects new events
+ * and the consumer records the pending ones before it exits.
+ */
+final class ResponseEventQueue {
+  private static final Logger logger = Logger.getLogger(ResponseEventQueue.class.getName());
+  private static final int MAX_BATCH_SIZE = 1024;
+  private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(64);
+  private static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+  /**
+   * Bit set in the tail once the queue is closed, so that producers can no longer claim a slot.
+   */
+  private static final long CLOSED = Long.MIN_VALUE;
+
+  /**
+   * Records the metrics of a response event.
+   */
+  interface Sink {
+    void record(RouteMetrics route, int status, long latency, long cpuNanos, long requestBytes);
+  }
+
+  private final int mask;
+  private final Sink sink;
+  private final CounterHandle droppedEvents;
+  // per slot sequence: equal to the position when free, position + 1 when published
+  private final AtomicLongArray sequences;
+  private final RouteMetrics[] routes;
+  private final int[] statuses;
+  private final long[] latencies;
+  private final long[] cpuNanos;
+  private final long[] requestBytes;
+  private final AtomicLong tail = new AtomicLong();
+  private final Thread consumer;
+  // set before the tail is closed
+  private volatile boolean closing;
+  private volatile long closeDeadlineNanos;
+  // only accessed by the consumer thread
+  private long head;
+
+  /**
+   * @param capacity      maximum number of pending events, rounded up to a power of two.
+   * @param sink          records the drained events on the consumer thread.
+   * @param droppedEvents counts the published events which are not recorded, since the sink
+   *                      failed or the queue was closed before they could be drained.
+   */
+  ResponseEventQueue(int capacity, Sink sink, CounterHandle droppedEvents) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.mask = size - 1;
+    this.sink = sink;
+    this.droppedEvents = droppedEvents;
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.lazySet(i, i);
+    }
+    this.routes = new RouteMetrics[size];
+    this.statuses = new int[size];
+    this.latencies = new long[size];
+    this.cpuNanos = new long[size];
+    this.requestBytes = new long[size];
+
+    consumer = new Thread(this::consume, "wavefront-jersey-metrics");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * @return false if the queue is full or closed and the event was not published.
+   */
+  boolean offer(RouteMetrics route, int status, long latency, long cpu, long bytes) {
+    long position = tail.get();
+    while (true) {
+      if (position < 0) {
+        // closed
+        return false;
+      }
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          routes[index] = route;
+          statuses[index] = status;
+          latencies[index] = latency;
+          cpuNanos[index] = cpu;
+          requestBytes[index] = bytes;
+          // publishes the fields written above to the consumer
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // the slot still holds an event of the previous lap
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  boolean isClosed() {
+    return tail.get() < 0;
+  }
+
+  /**
+   * Rejects any further event and waits for the pending ones to be recorded. Events still pending
+   * after a timeout are counted as dropped.
+   */
+  void close() {
+    if (isClosed()) {
+      return;
+    }
+    closeDeadlineNanos = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
+    closing = true;
+    tail.getAndUpdate(position -> position | CLOSED);
+    LockSupport.unpark(consumer);
+    try {
+      consumer.join(TimeUnit.NANOSECONDS.toMillis(CLOSE_TIMEOUT_NANOS) + 1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void consume() {
+    long idleParkNanos = MIN_IDLE_PARK_NANOS;
+    while (true) {
+      long end = tail.get();
+      if (end < 0) {
+        // closed, the events claimed before are drained once they are published
+        long pending = (end & ~CLOSED) - head;
+        if (pending == 0) {
+          return;
+        }
+        if (System.nanoTime() - closeDeadlineNanos > 0) {
+          droppedEvents.inc(pending);
+          logger.log(Level.WARNING, "Dropped " + pending + " jersey response events on close");
+          return;
+        }
+      }
+      if (drain() > 0) {
+        idleParkNanos = MIN_IDLE_PARK_NANOS;
+      } else if (end < 0) {
+        LockSupport.parkNanos(MIN_IDLE_PARK_NANOS);
+      } else {
+        // back off while idle, close() unparks the consumer
+        LockSupport.parkNanos(idleParkNanos);
+        idleParkNanos = Math.min(idleParkNanos * 2, MAX_IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  /**
+   * @return the number of drained events.
+   */
+  private int drain() {
+    int drained = 0;
+    while (drained < MAX_BATCH_SIZE) {
+      if (closing && System.nanoTime() - closeDeadlineNanos > 0) {
+        // the remaining events are counted as dropped by the consumer
+        break;
+      }
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) {
+        break;
+      }
+      RouteMetrics route = routes[index];
+      int status = statuses[index];
+      long latency = latencies[index];
+      long cpu = cpuNanos[index];
+      long bytes = requestBytes[index];
+      routes[index] = null;
+      // frees the slot for the producers of the next lap
+      sequences.lazySet(index, head + mask + 1);
+      head++;
+      drained++;
+      try {
+        sink.record(route, status, latency, cpu, bytes);
+      } catch (Throwable t) {
+        droppedEvents.inc();
+        logger.log(Level.SEVERE, "Exception recording jersey response metrics", t);
+      }
+    }
+    return drained;
+  }
+}
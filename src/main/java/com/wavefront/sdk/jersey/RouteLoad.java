@@ -0,0 +1,165 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrency and rolling latency of a route, from which {@link LoadSheddingPolicy} admits or
+ * rejects its requests. Latencies are counted in log-linear buckets (two per power of two) of ten
+ * rolling slots, so recording a latency is two atomic increments and the 99th percentile is
+ * recomputed at most every {@link #LIMIT_REFRESH_NANOS} nanoseconds.
+ */
+final class RouteLoad {
+  private static final int SLOTS = 10;
+  private static final int BUCKETS = 128;
+  private static final long NO_EPOCH = Long.MIN_VALUE;
+  private static final long LIMIT_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final int maxInflight;
+  private final long latencyTarget;
+  private final long slotNanos;
+  private final int minSamples;
+  private final AtomicInteger inflight = new AtomicInteger();
+  // slot i holds the latencies of the epoch epochs[i], in counts[i * BUCKETS, (i + 1) * BUCKETS)
+  private final AtomicLongArray epochs = new AtomicLongArray(SLOTS);
+  private final AtomicLongArray counts = new AtomicLongArray(SLOTS * BUCKETS);
+  private volatile int limit;
+  private volatile long limitRefreshedNanos;
+  // one refresh at a time, which owns the scratch buckets of the percentile
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private final long[] merged = new long[BUCKETS];
+
+  /**
+   * @param maxInflight   maximum number of concurrent requests.
+   * @param latencyTarget 99th percentile latency in the unit of the recorded latencies above which
+   *                      the limit shrinks, 0 for none.
+   * @param windowNanos   rolling window of the latency percentile.
+   * @param minSamples    minimum number of latencies within the window for the target to apply.
+   */
+  RouteLoad(int maxInflight, long latencyTarget, long windowNanos, int minSamples) {
+    this.maxInflight = maxInflight;
+    this.latencyTarget = latencyTarget;
+    this.slotNanos = Math.max(1, windowNanos / SLOTS);
+    this.minSamples = minSamples;
+    this.limit = maxInflight;
+    this.limitRefreshedNanos = System.nanoTime();
+    for (int i = 0; i < SLOTS; i++) {
+      epochs.lazySet(i, NO_EPOCH);
+    }
+  }
+
+  /**
+   * @return true if the request is admitted, in which case {@link #release()} must be called
+   * once it completes.
+   */
+  boolean tryAcquire() {
+    int currentLimit = limit();
+    while (true) {
+      int current = inflight.get();
+      if (current >= currentLimit) {
+        return false;
+      }
+      if (inflight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void release() {
+    inflight.decrementAndGet();
+  }
+
+  /**
+   * @param latency latency of a response, in the unit of the latency target.
+   */
+  void record(long latency) {
+    if (latencyTarget == 0) {
+      return;
+    }
+    long epoch = Math.floorDiv(System.nanoTime(), slotNanos);
+    int slot = (int) Math.floorMod(epoch, (long) SLOTS);
+    long current = epochs.get(slot);
+    if (current != epoch && epochs.compareAndSet(slot, current, epoch)) {
+      // first latency of a new epoch, drop the ones of the previous window. Latencies racing
+      // with the reset may be lost, which is fine for a percentile
+      for (int i = slot * BUCKETS; i < (slot + 1) * BUCKETS; i++) {
+        counts.set(i, 0);
+      }
+    }
+    counts.incrementAndGet(slot * BUCKETS + bucket(latency));
+  }
+
+  private int limit() {
+    if (latencyTarget == 0) {
+      return maxInflight;
+    }
+    long now = System.nanoTime();
+    if (now - limitRefreshedNanos >= LIMIT_REFRESH_NANOS &&
+        refreshing.compareAndSet(false, true)) {
+      // requests racing with the refresh use the previous limit
+      try {
+        limitRefreshedNanos = now;
+        long p99 = p99(now);
+        limit = p99 <= latencyTarget ? maxInflight :
+            (int) Math.max(1, maxInflight * latencyTarget / p99);
+      } finally {
+        refreshing.set(false);
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * @return upper bound of the 99th percentile latency of the window, or 0 with fewer latencies
+   * than the minimum number of samples. Only called by the refresh holding {@link #refreshing}.
+   */
+  private long p99(long now) {
+    long epoch = Math.floorDiv(now, slotNanos);
+    Arrays.fill(merged, 0);
+    long total = 0;
+    for (long e = epoch - SLOTS + 1; e <= epoch; e++) {
+      int slot = (int) Math.floorMod(e, (long) SLOTS);
+      if (epochs.get(slot) == e) {
+        for (int b = 0; b < BUCKETS; b++) {
+          long count = counts.get(slot * BUCKETS + b);
+          merged[b] += count;
+          total += count;
+        }
+      }
+    }
+    if (total < minSamples) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * 0.99);
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += merged[b];
+      if (seen >= rank) {
+        return upperBound(b);
+      }
+    }
+    return upperBound(BUCKETS - 1);
+  }
+
+  private static int bucket(long value) {
+    if (value < 2) {
+      return (int) Math.max(0, value);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int half = (int) (value >>> (exponent - 1)) & 1;
+    return 2 * exponent + half;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < 2) {
+      return bucket;
+    }
+    int exponent = bucket / 2;
+    long halfWidth = 1L << (exponent - 1);
+    long lower = (1L << exponent) + (bucket % 2) * halfWidth;
+    return lower + halfWidth - 1;
+  }
+}
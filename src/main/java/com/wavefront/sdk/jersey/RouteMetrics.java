@@ -0,0 +1,449 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.GaugeHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.HistogramHandle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import javax.annotation.Nullable;
+
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
+import static com.wavefront.sdk.jersey.MetricNameUtils.REQUEST_PREFIX;
+import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
+
+/**
+ * Metric names, tags and handles of a single Jersey route (resource method + HTTP method),
+ * resolved once so that a request only has to update the handles.
+ */
+final class RouteMetrics {
+  /**
+   * Handle of the metrics of a disabled {@link MetricFamily}.
+   */
+  static final NoOpHandle NO_OP_HANDLE = new NoOpHandle();
+
+  private final String metricName;
+  private final String matchingPath;
+  private final String httpMethod;
+  private final String className;
+  private final String methodName;
+  private final String operationName;
+  private final ApplicationTags applicationTags;
+  private final MetricHandleResolver resolver;
+  private final Function<MetricName, GaugeHandle> gauges;
+  private final MetricName apiInflightName;
+  private final Map<String, String> completeTagsMap;
+  private final Map<String, String> aggregatedPerShardMap;
+  private final Map<String, String> aggregatedPerServiceMap;
+  private final Map<String, String> aggregatedPerClusterMap;
+  private final Map<String, String> aggregatedPerApplicationMap;
+  private final CounterHandle[] overallCompletedCounters;
+  private final CounterHandle[] errorCounters;
+  @Nullable
+  private final LatencySloTracker latencySlo;
+  private final int latencyExemplars;
+  private final Set<AggregationLevel> aggregationLevels;
+  private final Set<MetricFamily> metricFamilies;
+  private final IntFunction<String> histogramStatusKey;
+  private final boolean measureEntityWrite;
+  private final boolean measurePayloadSize;
+  @Nullable
+  private final RouteLoad load;
+  private final CounterHandle shedCounter;
+  private final AtomicReference<StatusMetrics[]> statusMetrics =
+      new AtomicReference<>(new StatusMetrics[0]);
+  private volatile GaugeHandle apiInflight;
+
+  /**
+   * @param metricName              metric friendly API path including the HTTP method.
+   * @param matchingPath            matching API path.
+   * @param httpMethod              HTTP method of the route.
+   * @param className               canonical name of the resource class.
+   * @param methodName              name of the resource method.
+   * @param applicationTags         metadata about the application.
+   * @param resolver                resolves metric names to handles.
+   * @param gauges                  registers (or returns the registered) gauge for a metric name.
+   * @param overallCompletedCounters overall counters incremented for every response.
+   * @param overallErrorCounters    overall counters incremented for every error response.
+   * @param latencySlo              latency objective tracker of the route, shared by the routes
+   *                                of the same metric name, if any.
+   * @param latencyExemplars        number of latency exemplars kept per status code and minute,
+   *                                0 to keep none.
+   * @param aggregationLevels       levels at which the response counters are reported.
+   * @param metricFamilies          families of metrics which are reported.
+   * @param histogramStatusKey      key of a status code in the histogram names, e.g. 200 or 2xx.
+   * @param measureEntityWrite      whether the time spent writing response entities is measured.
+   * @param measurePayloadSize      whether the sizes of request and response entities are
+   *                                measured.
+   * @param load                    concurrency and latency of the route, shared by the routes of
+   *                                the same metric name, or null without load shedding.
+   */
+  RouteMetrics(String metricName, String matchingPath, String httpMethod, String className,
+               String methodName, ApplicationTags applicationTags, MetricHandleResolver resolver,
+               Function<MetricName, GaugeHandle> gauges, CounterHandle[] overallCompletedCounters,
+               CounterHandle[] overallErrorCounters,
+               @Nullable LatencySloTracker latencySlo,
+               int latencyExemplars, Set<AggregationLevel> aggregationLevels,
+               Set<MetricFamily> metricFamilies, IntFunction<String> histogramStatusKey,
+               boolean measureEntityWrite, boolean measurePayloadSize,
+               @Nullable RouteLoad load) {
+    this.metricName = metricName;
+    this.matchingPath = matchingPath;
+    this.httpMethod = httpMethod;
+    this.className = className;
+    this.methodName = methodName;
+    this.operationName = className.substring(className.lastIndexOf('.') + 1) + "." + methodName;
+    this.applicationTags = applicationTags;
+    this.resolver = resolver;
+    this.gauges = gauges;
+    this.overallCompletedCounters = overallCompletedCounters;
+    this.latencySlo = latencySlo;
+    this.latencyExemplars = latencyExemplars;
+    this.aggregationLevels = aggregationLevels;
+    this.metricFamilies = metricFamilies;
+    this.histogramStatusKey = histogramStatusKey;
+    this.measureEntityWrite = measureEntityWrite;
+    this.measurePayloadSize = measurePayloadSize;
+
+    String cluster = applicationTags.getCluster() == null ? NULL_TAG_VAL :
+        applicationTags.getCluster();
+    String shard = applicationTags.getShard() == null ? NULL_TAG_VAL : applicationTags.getShard();
+
+    completeTagsMap = completeTags(applicationTags, className, methodName);
+
+    // tag maps are shared by every metric name of the route, see TagMap
+    Map<String, String> aggregatedPerApplication = new HashMap<>();
+    aggregatedPerApplication.put("jersey.resource.class", className);
+    aggregatedPerApplication.put("jersey.resource.method", methodName);
+    aggregatedPerApplication.put("operationName", operationName);
+    aggregatedPerApplication.put("source", WAVEFRONT_PROVIDED_SOURCE);
+    aggregatedPerApplicationMap = TagMap.of(aggregatedPerApplication);
+
+    Map<String, String> aggregatedPerCluster = new HashMap<>(aggregatedPerApplication);
+    aggregatedPerCluster.put(CLUSTER_TAG_KEY, cluster);
+    aggregatedPerClusterMap = TagMap.of(aggregatedPerCluster);
+
+    Map<String, String> aggregatedPerService = new HashMap<>(aggregatedPerCluster);
+    aggregatedPerService.put(SERVICE_TAG_KEY, applicationTags.getService());
+    aggregatedPerServiceMap = TagMap.of(aggregatedPerService);
+
+    Map<String, String> aggregatedPerShard = new HashMap<>(aggregatedPerService);
+    aggregatedPerShard.put(SHARD_TAG_KEY, shard);
+    aggregatedPerShardMap = TagMap.of(aggregatedPerShard);
+
+    apiInflightName = new MetricName(REQUEST_PREFIX + metricName + ".inflight", completeTagsMap);
+
+    /*
+     * Error response metrics
+     * 1) jersey.server.response.api.v2.alert.summary.GET.errors (Counter)
+     * 2) jersey.server.response.errors (Counter)
+     * followed by the overall error response metrics.
+     */
+    List<CounterHandle> errors = new ArrayList<>();
+    if (metricFamilies.contains(MetricFamily.ERRORS)) {
+      if (aggregationLevels.contains(AggregationLevel.SOURCE)) {
+        errors.add(resolver.counter(new MetricName(RESPONSE_PREFIX + metricName + ".errors",
+            completeTagsMap)));
+        errors.add(resolver.counter(new MetricName("response.errors", completeTagsMap)));
+      }
+      errors.addAll(Arrays.asList(overallErrorCounters));
+    }
+    this.errorCounters = errors.toArray(new CounterHandle[0]);
+
+    /*
+     * Requests rejected by load shedding: jersey.server.request.api.v2.alert.summary.GET.shed
+     * (Counter)
+     */
+    this.load = load;
+    this.shedCounter = load == null ? NO_OP_HANDLE : resolver.counter(
+        new MetricName(REQUEST_PREFIX + metricName + ".shed", completeTagsMap));
+  }
+
+  /**
+   * @return the immutable tags of the granular metrics of a route.
+   */
+  static Map<String, String> completeTags(ApplicationTags applicationTags, String className,
+                                          String methodName) {
+    Map<String, String> completeTags = new HashMap<>();
+    completeTags.put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+        applicationTags.getCluster());
+    completeTags.put(SERVICE_TAG_KEY, applicationTags.getService());
+    completeTags.put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+        applicationTags.getShard());
+    completeTags.put("jersey.resource.class", className);
+    completeTags.put("jersey.resource.method", methodName);
+    completeTags.put("operationName",
+        className.substring(className.lastIndexOf('.') + 1) + "." + methodName);
+    return TagMap.of(completeTags);
+  }
+
+  String getMetricName() {
+    return metricName;
+  }
+
+  String getMatchingPath() {
+    return matchingPath;
+  }
+
+  String getHttpMethod() {
+    return httpMethod;
+  }
+
+  String getClassName() {
+    return className;
+  }
+
+  String getOperationName() {
+    return operationName;
+  }
+
+  /**
+   * @return gauge tracking the inflight requests of this route, registered on first use.
+   */
+  GaugeHandle getApiInflight() {
+    GaugeHandle toReturn = apiInflight;
+    if (toReturn == null) {
+      toReturn = metricFamilies.contains(MetricFamily.INFLIGHT) ? gauges.apply(apiInflightName) :
+          NO_OP_HANDLE;
+      apiInflight = toReturn;
+    }
+    return toReturn;
+  }
+
+  /**
+   * @return latency objective tracker of this route, or null if the route has no objective.
+   */
+  @Nullable
+  LatencySloTracker getLatencySlo() {
+    return latencySlo;
+  }
+
+  /**
+   * @return concurrency and latency of this route, or null without load shedding.
+   */
+  @Nullable
+  RouteLoad getLoad() {
+    return load;
+  }
+
+  CounterHandle getShedCounter() {
+    return shedCounter;
+  }
+
+  CounterHandle[] getErrorCounters() {
+    return errorCounters;
+  }
+
+  /**
+   * @return latency exemplars of every status code of this route, slowest first.
+   */
+  List<LatencyExemplar> getLatencyExemplars() {
+    List<LatencyExemplar> toReturn = new ArrayList<>();
+    for (StatusMetrics metrics : statusMetrics.get()) {
+      if (metrics.latencyExemplars != null) {
+        toReturn.addAll(metrics.latencyExemplars.get());
+      }
+    }
+    toReturn.sort(Comparator.comparingLong(LatencyExemplar::getLatency).reversed());
+    return toReturn;
+  }
+
+  /**
+   * @param status HTTP response status code.
+   * @return metrics of this route for the given response status code.
+   */
+  StatusMetrics forStatus(int status) {
+    // copy on write without locking, so that request threads never block (or pin the carrier
+    // of a virtual thread) here
+    StatusMetrics created = null;
+    while (true) {
+      StatusMetrics[] current = statusMetrics.get();
+      for (StatusMetrics metrics : current) {
+        if (metrics.status == status) {
+          return metrics;
+        }
+      }
+      if (created == null) {
+        created = new StatusMetrics(status);
+      }
+      StatusMetrics[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = created;
+      if (statusMetrics.compareAndSet(current, updated)) {
+        return created;
+      }
+    }
+  }
+
+  /**
+   * Metrics of a route for a single response status code.
+   */
+  final class StatusMetrics {
+    private final int status;
+    private final CounterHandle[] completedCounters;
+    private final HistogramHandle cpuNanos;
+    private final HistogramHandle latency;
+    private final CounterHandle totalTime;
+    private final HistogramHandle serializationNanos;
+    private final HistogramHandle responseBytes;
+    private final HistogramHandle requestBytes;
+    @Nullable
+    private final ExemplarReservoir latencyExemplars;
+
+    private StatusMetrics(int status) {
+      this.status = status;
+      String responseMetricKey = RESPONSE_PREFIX + metricName + "." + status;
+
+      /*
+       * Granular response metrics
+       * 1) jersey.server.response.api.v2.alert.summary.GET.200.cumulative.count (Counter)
+       * 2) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_shard.count (DeltaCounter)
+       * 3) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_service.count (DeltaCounter)
+       * 4) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_cluster.count (DeltaCounter)
+       * 5) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_application.count (DeltaCounter)
+       * followed by the overall response metrics.
+       */
+      List<CounterHandle> completed = new ArrayList<>();
+      if (metricFamilies.contains(MetricFamily.COMPLETED)) {
+        if (aggregationLevels.contains(AggregationLevel.SOURCE)) {
+          completed.add(resolver.counter(new MetricName(responseMetricKey + ".cumulative",
+              completeTagsMap)));
+        }
+        if (applicationTags.getShard() != null &&
+            aggregationLevels.contains(AggregationLevel.SHARD)) {
+          completed.add(resolver.deltaCounter(new MetricName(responseMetricKey +
+              ".aggregated_per_shard", aggregatedPerShardMap)));
+        }
+        if (aggregationLevels.contains(AggregationLevel.SERVICE)) {
+          completed.add(resolver.deltaCounter(new MetricName(responseMetricKey +
+              ".aggregated_per_service", aggregatedPerServiceMap)));
+        }
+        if (applicationTags.getCluster() != null &&
+            aggregationLevels.contains(AggregationLevel.CLUSTER)) {
+          completed.add(resolver.deltaCounter(new MetricName(responseMetricKey +
+              ".aggregated_per_cluster", aggregatedPerClusterMap)));
+        }
+        if (aggregationLevels.contains(AggregationLevel.APPLICATION)) {
+          completed.add(resolver.deltaCounter(new MetricName(responseMetricKey +
+              ".aggregated_per_application", aggregatedPerApplicationMap)));
+        }
+        completed.addAll(Arrays.asList(overallCompletedCounters));
+      }
+      this.completedCounters = completed.toArray(new CounterHandle[0]);
+
+      /*
+       * WavefrontHistograms, keyed by the status group if status codes are grouped. Handles of the
+       * same name update the same histogram, so grouped status codes share it.
+       * 1) jersey.server.response.api.v2.alert.summary.GET.200.latency
+       * 2) jersey.server.response.api.v2.alert.summary.GET.200.cpu_ns
+       */
+      String histogramMetricKey = RESPONSE_PREFIX + metricName + "." +
+          histogramStatusKey.apply(status);
+      this.cpuNanos = !metricFamilies.contains(MetricFamily.CPU_TIME) ? NO_OP_HANDLE :
+          resolver.histogram(new MetricName(histogramMetricKey + ".cpu_ns", completeTagsMap));
+      this.latency = !metricFamilies.contains(MetricFamily.LATENCY) ? NO_OP_HANDLE :
+          resolver.histogram(new MetricName(histogramMetricKey + ".latency", completeTagsMap));
+      /*
+       * total time spent counter: jersey.server.response.api.v2.alert.summary.GET.200.total_time
+       */
+      this.totalTime = !metricFamilies.contains(MetricFamily.TOTAL_TIME) ? NO_OP_HANDLE :
+          resolver.counter(new MetricName(responseMetricKey + ".total_time", completeTagsMap));
+      /*
+       * WavefrontHistograms of the entities, if measured
+       * 1) jersey.server.response.api.v2.alert.summary.GET.200.serialization_ns
+       * 2) jersey.server.response.api.v2.alert.summary.GET.200.response_bytes
+       * 3) jersey.server.response.api.v2.alert.summary.GET.200.request_bytes
+       */
+      this.serializationNanos = !measureEntityWrite ? NO_OP_HANDLE :
+          resolver.histogram(new MetricName(histogramMetricKey + ".serialization_ns",
+              completeTagsMap));
+      this.responseBytes = !measurePayloadSize ? NO_OP_HANDLE :
+          resolver.histogram(new MetricName(histogramMetricKey + ".response_bytes",
+              completeTagsMap));
+      this.requestBytes = !measurePayloadSize ? NO_OP_HANDLE :
+          resolver.histogram(new MetricName(histogramMetricKey + ".request_bytes",
+              completeTagsMap));
+      this.latencyExemplars = RouteMetrics.this.latencyExemplars > 0 ?
+          new ExemplarReservoir(status, RouteMetrics.this.latencyExemplars) : null;
+    }
+
+    int getStatus() {
+      return status;
+    }
+
+    CounterHandle[] getCompletedCounters() {
+      return completedCounters;
+    }
+
+    HistogramHandle getCpuNanos() {
+      return cpuNanos;
+    }
+
+    HistogramHandle getLatency() {
+      return latency;
+    }
+
+    CounterHandle getTotalTime() {
+      return totalTime;
+    }
+
+    HistogramHandle getSerializationNanos() {
+      return serializationNanos;
+    }
+
+    HistogramHandle getResponseBytes() {
+      return responseBytes;
+    }
+
+    HistogramHandle getRequestBytes() {
+      return requestBytes;
+    }
+
+    /**
+     * @return slowest traced requests per minute, or null if exemplars are not kept.
+     */
+    @Nullable
+    ExemplarReservoir getLatencyExemplars() {
+      return latencyExemplars;
+    }
+  }
+
+  /**
+   * Handle ignoring every update.
+   */
+  static final class NoOpHandle implements CounterHandle, HistogramHandle, GaugeHandle {
+    private NoOpHandle() {
+    }
+
+    @Override
+    public void inc() {
+    }
+
+    @Override
+    public void inc(long n) {
+    }
+
+    @Override
+    public void update(long value) {
+    }
+
+    @Override
+    public void dec() {
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.wavefront.sdk.jersey;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compact immutable map of metric tags with a precomputed hash code. Tag maps are built once per
+ * application or route and shared by all their {@code MetricName}s, which delegate hashing and
+ * equality to their tags.
+ */
+final class TagMap extends AbstractMap<String, String> {
+  private final String[] keys;
+  private final String[] values;
+  private final int hashCode;
+
+  private TagMap(String[] keys, String[] values) {
+    this.keys = keys;
+    this.values = values;
+    int hash = 0;
+    for (int i = 0; i < keys.length; i++) {
+      // same as the hash code of a java.util.Map
+      hash += keys[i].hashCode() ^ Objects.hashCode(values[i]);
+    }
+    this.hashCode = hash;
+  }
+
+  /**
+   * @param tags tags to copy, keys may not be null.
+   * @return an immutable copy of the given tags.
+   */
+  static TagMap of(Map<String, String> tags) {
+    if (tags instanceof TagMap) {
+      return (TagMap) tags;
+    }
+    String[] keys = tags.keySet().toArray(new String[0]);
+    Arrays.sort(keys);
+    String[] values = new String[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = tags.get(keys[i]);
+    }
+    return new TagMap(keys, values);
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public String get(Object key) {
+    int index = indexOf(key);
+    return index < 0 ? null : values[index];
+  }
+
+  private int indexOf(Object key) {
+    return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>() {
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<Entry<String, String>>() {
+          private int index;
+
+          @Override
+          public boolean hasNext() {
+            return index < keys.length;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (index >= keys.length) {
+              throw new NoSuchElementException();
+            }
+            Entry<String, String> entry = new SimpleImmutableEntry<>(keys[index], values[index]);
+            index++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o instanceof TagMap) {
+      TagMap other = (TagMap) o;
+      return hashCode == other.hashCode && Arrays.equals(keys, other.keys) &&
+          Arrays.equals(values, other.values);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
@@ -0,0 +1,273 @@
+package com.wavefront.sdk.jersey;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Decides whether a request is traced by {@link WavefrontJerseyFilter} before any span work
+ * (context extraction, span building, decoration) is done for it.
+ *
+ * A request carrying an upstream sampling decision (B3, W3C trace context, Wavefront or Jaeger
+ * headers) follows
+ * that decision if {@link Builder#honourUpstreamDecision(boolean)} is set. Any other request is
+ * traced with the configured probability, subject to the per route rate limit. Requests which are
+ * not traced still get a span if their response is an error and
+ * {@link Builder#alwaysSampleErrors(boolean)} is set.
+ */
+public final class TraceSamplingPolicy {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Policy tracing every request, the behaviour without a sampling policy.
+   */
+  static final TraceSamplingPolicy ALWAYS = new Builder().build();
+
+  enum Decision {
+    /**
+     * Trace the request.
+     */
+    SAMPLE,
+    /**
+     * Trace the request only if its response is an error.
+     */
+    SAMPLE_ERRORS,
+    /**
+     * Do not trace the request.
+     */
+    DROP
+  }
+
+  private final double probability;
+  private final int maxTracesPerSecondPerRoute;
+  private final boolean alwaysSampleErrors;
+  private final boolean honourUpstreamDecision;
+  private final ConcurrentMap<String, RouteLimiter> limiters = new ConcurrentHashMap<>();
+
+  private TraceSamplingPolicy(double probability, int maxTracesPerSecondPerRoute,
+                              boolean alwaysSampleErrors, boolean honourUpstreamDecision) {
+    this.probability = probability;
+    this.maxTracesPerSecondPerRoute = maxTracesPerSecondPerRoute;
+    this.alwaysSampleErrors = alwaysSampleErrors;
+    this.honourUpstreamDecision = honourUpstreamDecision;
+  }
+
+  public static final class Builder {
+    private double probability = 1.0;
+    private int maxTracesPerSecondPerRoute = 0;
+    private boolean alwaysSampleErrors = false;
+    private boolean honourUpstreamDecision = false;
+
+    /**
+     * @param probability probability in [0, 1] with which a request is traced, 1 by default.
+     * @return {@code this}.
+     */
+    public Builder probability(double probability) {
+      Preconditions.checkArgument(probability >= 0 && probability <= 1, "Invalid probability");
+      this.probability = probability;
+      return this;
+    }
+
+    /**
+     * @param maxTracesPerSecondPerRoute maximum number of requests traced per second and route,
+     *                                   0 (default) for no limit.
+     * @return {@code this}.
+     */
+    public Builder maxTracesPerSecondPerRoute(int maxTracesPerSecondPerRoute) {
+      Preconditions.checkArgument(maxTracesPerSecondPerRoute >= 0,
+          "Invalid maxTracesPerSecondPerRoute");
+      this.maxTracesPerSecondPerRoute = maxTracesPerSecondPerRoute;
+      return this;
+    }
+
+    /**
+     * @param alwaysSampleErrors whether to trace requests with an error response even if they
+     *                           were not sampled, false by default.
+     * @return {@code this}.
+     */
+    public Builder alwaysSampleErrors(boolean alwaysSampleErrors) {
+      this.alwaysSampleErrors = alwaysSampleErrors;
+      return this;
+    }
+
+    /**
+     * @param honourUpstreamDecision whether requests carrying a sampling decision of the caller
+     *                               (X-B3-Sampled, X-B3-Flags, b3, traceparent, wf-ot-sample or
+     *                               uber-trace-id headers) follow that decision, false by default.
+     * @return {@code this}.
+     */
+    public Builder honourUpstreamDecision(boolean honourUpstreamDecision) {
+      this.honourUpstreamDecision = honourUpstreamDecision;
+      return this;
+    }
+
+    public TraceSamplingPolicy build() {
+      return new TraceSamplingPolicy(probability, maxTracesPerSecondPerRoute, alwaysSampleErrors,
+          honourUpstreamDecision);
+    }
+  }
+
+  /**
+   * @param headers   request headers.
+   * @param routeName metric name of the route serving the request.
+   * @return whether to trace the request.
+   */
+  Decision decide(MultivaluedMap<String, String> headers, String routeName) {
+    if (honourUpstreamDecision) {
+      Boolean upstream = upstreamDecision(headers);
+      if (upstream != null) {
+        return upstream ? Decision.SAMPLE : Decision.DROP;
+      }
+    }
+    if (sample(routeName)) {
+      return Decision.SAMPLE;
+    }
+    return alwaysSampleErrors ? Decision.SAMPLE_ERRORS : Decision.DROP;
+  }
+
+  private boolean sample(String routeName) {
+    if (probability < 1 && (probability == 0 ||
+        ThreadLocalRandom.current().nextDouble() >= probability)) {
+      return false;
+    }
+    if (maxTracesPerSecondPerRoute == 0) {
+      return true;
+    }
+    RouteLimiter limiter = limiters.get(routeName);
+    if (limiter == null) {
+      limiter = new RouteLimiter();
+      RouteLimiter existing = limiters.putIfAbsent(routeName, limiter);
+      if (existing != null) {
+        limiter = existing;
+      }
+    }
+    return limiter.tryAcquire(maxTracesPerSecondPerRoute);
+  }
+
+  /**
+   * @return the sampling decision of the caller, or null if the request carries none.
+   */
+  @Nullable
+  private static Boolean upstreamDecision(MultivaluedMap<String, String> headers) {
+    // B3 multi header format
+    if ("1".equals(headers.getFirst("X-B3-Flags"))) {
+      return true;
+    }
+    Boolean decision = parseSampled(headers.getFirst("X-B3-Sampled"));
+    if (decision != null) {
+      return decision;
+    }
+    // B3 single header format: {TraceId}-{SpanId}-{SamplingState}-{ParentSpanId} or just
+    // {SamplingState}
+    String b3 = headers.getFirst("b3");
+    if (b3 != null) {
+      int start = -1;
+      if (b3.indexOf('-') < 0) {
+        start = 0;
+      } else {
+        int spanIdEnd = b3.indexOf('-', b3.indexOf('-') + 1);
+        if (spanIdEnd > 0) {
+          start = spanIdEnd + 1;
+        }
+      }
+      if (start >= 0) {
+        int end = b3.indexOf('-', start);
+        String state = b3.substring(start, end < 0 ? b3.length() : end);
+        if ("d".equals(state)) {
+          return true;
+        }
+        decision = parseSampled(state);
+        if (decision != null) {
+          return decision;
+        }
+      }
+    }
+    // W3C trace context: {version}-{trace-id}-{parent-id}-{trace-flags}
+    String traceparent = headers.getFirst("traceparent");
+    if (traceparent != null && traceparent.length() >= 55 && traceparent.charAt(52) == '-') {
+      int flags = Character.digit(traceparent.charAt(54), 16);
+      if (flags >= 0) {
+        return (flags & 1) == 1;
+      }
+    }
+    // WavefrontTracer
+    decision = parseSampled(headers.getFirst("wf-ot-sample"));
+    if (decision != null) {
+      return decision;
+    }
+    // Jaeger: {trace-id}:{span-id}:{parent-span-id}:{flags}, the separators may be URL encoded
+    String uberTraceId = headers.getFirst("uber-trace-id");
+    if (uberTraceId != null) {
+      String[] parts = uberTraceId.replace("%3A", ":").replace("%3a", ":").split(":", -1);
+      if (parts.length == 4) {
+        int flags = parseHex(parts[3]);
+        if (flags >= 0) {
+          return (flags & 1) == 1;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the value of a short hexadecimal number, or -1 if it is not one.
+   */
+  private static int parseHex(String hex) {
+    if (hex.isEmpty() || hex.length() > 2) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = 0; i < hex.length(); i++) {
+      int digit = Character.digit(hex.charAt(i), 16);
+      if (digit < 0) {
+        return -1;
+      }
+      value = value * 16 + digit;
+    }
+    return value;
+  }
+
+  @Nullable
+  private static Boolean parseSampled(@Nullable String sampled) {
+    if ("1".equals(sampled) || "true".equalsIgnoreCase(sampled)) {
+      return true;
+    }
+    if ("0".equals(sampled) || "false".equalsIgnoreCase(sampled)) {
+      return false;
+    }
+    return null;
+  }
+
+  /**
+   * Lock-free limiter admitting a fixed number of permits per (monotonic clock) second.
+   */
+  private static final class RouteLimiter {
+    // second of the current window in the upper 32 bits, permits taken in the lower 32 bits
+    private final AtomicLong state = new AtomicLong();
+
+    boolean tryAcquire(int permitsPerSecond) {
+      long second = (System.nanoTime() / NANOS_PER_SECOND) & 0xffffffffL;
+      while (true) {
+        long current = state.get();
+        long next;
+        if ((current >>> 32) != second) {
+          next = (second << 32) | 1;
+        } else if ((int) current >= permitsPerSecond) {
+          return false;
+        } else {
+          next = current + 1;
+        }
+        if (state.compareAndSet(current, next)) {
+          return true;
+        }
+      }
+    }
+  }
+}
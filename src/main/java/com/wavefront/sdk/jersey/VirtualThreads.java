@@ -0,0 +1,18 @@
+package com.wavefront.sdk.jersey;
+
+/**
+ * Virtual thread support. This version is used on JDKs without virtual threads, the jar contains
+ * a JDK 21 version under {@code META-INF/versions/21}.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if the current thread is a virtual thread.
+   */
+  static boolean isCurrentThreadVirtual() {
+    return false;
+  }
+}
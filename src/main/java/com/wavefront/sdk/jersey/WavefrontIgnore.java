@@ -0,0 +1,18 @@
+package com.wavefront.sdk.jersey;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Excludes a resource method, or every resource method of a resource class, from the metrics
+ * and traces of {@link WavefrontJerseyFilter}, e.g. health checks or static assets. Can be
+ * overridden at runtime, see {@link WavefrontJerseyFilter#setRouteExcluded(String, boolean)}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface WavefrontIgnore {
+}
@@ -1,6 +1,8 @@
 package com.wavefront.sdk.jersey;
 
 import com.wavefront.config.WavefrontReportingConfig;
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
 import com.wavefront.opentracing.WavefrontTracer;
 import com.wavefront.opentracing.reporting.WavefrontSpanReporter;
 import com.wavefront.sdk.common.WavefrontSender;
@@ -10,11 +12,24 @@ import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
 
 import org.apache.commons.lang3.BooleanUtils;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
 import io.opentracing.Tracer;
 
 import static com.wavefront.config.ReportingUtils.constructApplicationTags;
 import static com.wavefront.config.ReportingUtils.constructWavefrontReportingConfig;
 import static com.wavefront.config.ReportingUtils.constructWavefrontSender;
+import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.NULL_TAG_VAL;
+import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
+import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
 
 /**
  * A basic mode to configure Jersey server SDK and report Jersey metrics, histograms and tracing
@@ -24,19 +39,46 @@ import static com.wavefront.config.ReportingUtils.constructWavefrontSender;
  * @author Sushant Dewan (sushant@wavefront.com).
  */
 public class WavefrontJerseyFactory {
+  private static final Logger logger = Logger.getLogger(WavefrontJerseyFactory.class.getName());
   private final ApplicationTags applicationTags;
   private final String source;
   private final Tracer tracer;
-  private final WavefrontSender wavefrontSender;
-  private final WavefrontJerseyReporter wfJerseyReporter;
   private final WavefrontJerseyFilter wavefrontJerseyFilter;
-  private final WavefrontJaxrsClientFilter wavefrontJaxrsClientFilter;
+  private final CompletableFuture<WavefrontJerseyFactory> ready;
+  // builds the sender, reporters and tracer once started, null unless lazily initialized
+  @Nullable
+  private final Thread initializer;
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final MetricsSnapshotResource metricsSnapshotResource =
+      new MetricsSnapshotResource(this::getWavefrontJerseyReporter);
+  private volatile WavefrontSender wavefrontSender;
+  private volatile WavefrontJerseyReporter wfJerseyReporter;
+  private volatile WavefrontJaxrsClientFilter wavefrontJaxrsClientFilter;
 
   /**
    * Construct WavefrontJerseyFactory with given yaml files path of application tags and Wavefront
    * reporting configuration.
    */
   public WavefrontJerseyFactory(String applicationTagsYamlFile, String wfReportingConfigYamlFile) {
+    this(applicationTagsYamlFile, wfReportingConfigYamlFile, false);
+  }
+
+  /**
+   * Construct WavefrontJerseyFactory with given yaml files path of application tags and Wavefront
+   * reporting configuration.
+   *
+   * With lazy initialization, only the yaml files are read by the constructor. The sender, the
+   * reporters and the tracer are built on a background thread once {@link #start()} is called,
+   * which keeps hostname resolution and connection setup off the application boot path. The
+   * filter and the tracer can be used right away: metrics other than the inflight gauges are
+   * dropped (and counted by the {@code deferred.updates.dropped} counter) and spans are no-op
+   * until {@link #ready()} completes, and the sender, reporter and client filter getters return
+   * null.
+   *
+   * @param lazyInit whether to build the sender, reporters and tracer on a background thread.
+   */
+  public WavefrontJerseyFactory(String applicationTagsYamlFile, String wfReportingConfigYamlFile,
+                                boolean lazyInit) {
 
     // Step 1 - Create an ApplicationTags instance, which specifies metadata about your application.
     this.applicationTags = constructApplicationTags(applicationTagsYamlFile);
@@ -46,7 +88,69 @@ public class WavefrontJerseyFactory {
         constructWavefrontReportingConfig(wfReportingConfigYamlFile);
 
     this.source = wfReportingConfig.getSource();
+    boolean reportTraces = BooleanUtils.isTrue(wfReportingConfig.getReportTraces());
+
+    if (!lazyInit) {
+      this.tracer = initialize(wfReportingConfig, reportTraces);
+
+      // Step 8 - Construct the filter that you should register with your Jersey based application.
+      this.wavefrontJerseyFilter = filterBuilder(wfJerseyReporter, tracer).build();
+      this.ready = CompletableFuture.completedFuture(this);
+      this.initializer = null;
+    } else {
+      // Steps 3 to 7 run in the background, the filter reports to their results once ready.
+      DeferredReporter deferredReporter = new DeferredReporter(new MetricName(
+          "deferred.updates.dropped", overallTags()));
+      DeferredTracer deferredTracer = reportTraces ? new DeferredTracer() : null;
+      this.tracer = deferredTracer;
+      this.wavefrontJerseyFilter = filterBuilder(deferredReporter, deferredTracer).build();
+      this.ready = new CompletableFuture<>();
+      this.initializer = new Thread(() -> {
+        try {
+          Tracer wfTracer = initialize(wfReportingConfig, reportTraces);
+          deferredReporter.complete(wfJerseyReporter);
+          if (deferredTracer != null) {
+            deferredTracer.complete(wfTracer);
+          }
+          ready.complete(this);
+        } catch (Throwable t) {
+          logger.log(Level.SEVERE, "Exception initializing Wavefront Jersey SDK", t);
+          ready.completeExceptionally(t);
+        }
+      }, "wavefront-jersey-init");
+      initializer.setDaemon(true);
+    }
+  }
+
+  private Map<String, String> overallTags() {
+    Map<String, String> tags = new HashMap<>();
+    tags.put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
+        applicationTags.getCluster());
+    tags.put(SERVICE_TAG_KEY, applicationTags.getService());
+    tags.put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
+        applicationTags.getShard());
+    return tags;
+  }
+
+  /**
+   * Starts building the sender, the reporters and the tracer on a background thread, if lazily
+   * initialized. Does nothing if already started or not lazily initialized.
+   *
+   * @return {@link #ready()}.
+   */
+  public CompletableFuture<WavefrontJerseyFactory> start() {
+    if (initializer != null && started.compareAndSet(false, true)) {
+      initializer.start();
+    }
+    return ready;
+  }
 
+  /**
+   * Builds the sender, the reporter, the tracer and the client filter, and starts the reporter.
+   *
+   * @return the tracer, or null if traces are not reported.
+   */
+  private Tracer initialize(WavefrontReportingConfig wfReportingConfig, boolean reportTraces) {
     // Step 3 - Create a WavefrontSender for sending data to Wavefront.
     this.wavefrontSender = constructWavefrontSender(wfReportingConfig);
 
@@ -55,35 +159,54 @@ public class WavefrontJerseyFactory {
     this.wfJerseyReporter = new WavefrontJerseyReporter.Builder
         (applicationTags).withSource(source).build(wavefrontSender);
 
-    // Step 5 - Create a WavefrontJerseyFilter.Builder
-    WavefrontJerseyFilter.Builder wfJerseyFilterBuilder = new WavefrontJerseyFilter.Builder
-        (wfJerseyReporter, applicationTags);
-
-    if (BooleanUtils.isTrue(wfReportingConfig.getReportTraces())) {
+    Tracer wfTracer = null;
+    if (reportTraces) {
       // Step 6 - Optionally create a WavefrontTracer for reporting trace data
       // from Jersey APIs to Wavefront.
       WavefrontSpanReporter wfSpanReporter;
       wfSpanReporter = new WavefrontSpanReporter.Builder().withSource(source).build(wavefrontSender);
-      tracer = new WavefrontTracer.Builder(wfSpanReporter, applicationTags).build();
-      wfJerseyFilterBuilder.withTracer(tracer);
-    } else {
-      tracer = null;
+      wfTracer = new WavefrontTracer.Builder(wfSpanReporter, applicationTags).build();
     }
 
     // Step 7 - Start the Jersey reporter to report metrics and histograms
     wfJerseyReporter.start();
 
-    // Step 8 - Construct the filter that you should register with your Jersey based application.
-    this.wavefrontJerseyFilter = wfJerseyFilterBuilder.build();
-
     this.wavefrontJaxrsClientFilter = new WavefrontJaxrsClientFilter(wavefrontSender,
-        applicationTags, source, tracer);
+        applicationTags, source, wfTracer);
+    return wfTracer;
+  }
+
+  // Step 5 - Create a WavefrontJerseyFilter.Builder
+  private WavefrontJerseyFilter.Builder filterBuilder(SdkReporter reporter, Tracer tracer) {
+    WavefrontJerseyFilter.Builder wfJerseyFilterBuilder = new WavefrontJerseyFilter.Builder
+        (reporter, applicationTags);
+    if (tracer != null) {
+      wfJerseyFilterBuilder.withTracer(tracer);
+    }
+    return wfJerseyFilterBuilder;
+  }
+
+  /**
+   * @return a future completed once the sender, reporters and tracer are built and the reporter
+   * is started, or completed exceptionally if building them failed. Already completed unless
+   * lazily initialized, otherwise completed only after {@link #start()}.
+   */
+  public CompletableFuture<WavefrontJerseyFactory> ready() {
+    return ready;
   }
 
   public WavefrontJerseyFilter getWavefrontJerseyFilter() {
     return wavefrontJerseyFilter;
   }
 
+  /**
+   * @return a resource serving the current metrics of the Jersey reporter as JSON under
+   * {@code wavefront/metrics}, to register with the application if desired.
+   */
+  public MetricsSnapshotResource getMetricsSnapshotResource() {
+    return metricsSnapshotResource;
+  }
+
   public WavefrontJaxrsClientFilter getWavefrontJaxrsClientFilter() {
     return wavefrontJaxrsClientFilter;
   }
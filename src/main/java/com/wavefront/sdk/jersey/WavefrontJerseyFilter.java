@@ -1,24 +1,45 @@
 package com.wavefront.sdk.jersey;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 
 import com.wavefront.internal.reporter.SdkReporter;
 import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.opentracing.WavefrontTracer;
 import com.wavefront.sdk.common.Pair;
 import com.wavefront.sdk.common.application.ApplicationTags;
 import com.wavefront.sdk.jaxrs.client.SpanWrapper;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.GaugeHandle;
 
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ExtendedUriInfo;
-import org.glassfish.jersey.server.internal.routing.RoutingContext;
-
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -26,16 +47,26 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
 
 import io.opentracing.Scope;
 import io.opentracing.Span;
@@ -53,7 +84,6 @@ import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
 import static com.wavefront.sdk.jaxrs.Constants.PROPERTY_NAME;
 import static com.wavefront.sdk.jaxrs.Constants.WF_SPAN_HEADER;
 import static com.wavefront.sdk.jersey.Constants.JERSEY_SERVER_COMPONENT;
-import static com.wavefront.sdk.jersey.MetricNameUtils.REQUEST_PREFIX;
 import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
 
 /**
@@ -61,14 +91,93 @@ import static com.wavefront.sdk.jersey.MetricNameUtils.RESPONSE_PREFIX;
  *
  * @author Sushant Dewan (sushant@wavefront.com).
  */
-public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerResponseFilter {
+public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerResponseFilter,
+    ReaderInterceptor, WriterInterceptor, ApplicationEventListener {
   private static final Logger logger = Logger.getLogger(
       WavefrontJerseyFilter.class.getName());
-  private final SdkReporter wfJerseyReporter;
+  /**
+   * Request property holding the {@link StatsContext} of a request. The context travels with the
+   * request rather than the thread, since async resources complete on a different thread.
+   */
+  private static final String STATS_CONTEXT_PROPERTY =
+      WavefrontJerseyFilter.class.getName() + ".statsContext";
+  /**
+   * Metric name and matching path of the routes beyond {@link Builder#maxRoutes(int)}.
+   */
+  private static final String OVERFLOW_ROUTE = "other";
+  /**
+   * Maximum number of routes resolved on the request path that are kept for reuse.
+   */
+  private static final int MAX_CACHED_ROUTES = 1000;
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  /**
+   * Start CPU time of requests whose CPU time is not measured. Same value the
+   * {@link ThreadMXBean} returns when CPU time measurement is disabled.
+   */
+  private static final long NO_CPU_TIME = -1;
+  /**
+   * Latency of responses whose request was not seen by the request filter.
+   */
+  private static final long NO_LATENCY = -1;
+  /**
+   * Size of entities which are not measured, same as an unknown content length.
+   */
+  private static final long NO_SIZE = -1;
+  /**
+   * Stats context shared by the requests of excluded routes, so that the response filter and the
+   * interceptors skip them without resolving the route again.
+   */
+  private static final StatsContext EXCLUDED =
+      new StatsContext(0, NO_CPU_TIME, NO_SIZE, null, null, null, false);
+  private final MetricHandleResolver handleResolver;
   private final ApplicationTags applicationTags;
-  private final ThreadLocal<StatsContext> statsContextThreadLocal = new ThreadLocal<>();
-  private final ConcurrentMap<MetricName, AtomicInteger> gauges = new ConcurrentHashMap<>();
+  private final RequestEventListener requestEventListener = this::onRequestEvent;
+  private final ConcurrentMap<MetricName, GaugeHandle> gauges = new ConcurrentHashMap<>();
   private final Set<String> headerTags;
+  private final TimeUnit latencyUnit;
+  private final int cpuTimeSampleRate;
+  private final int maxRoutes;
+  private final TraceSamplingPolicy traceSamplingPolicy;
+  @Nullable
+  private final ResponseEventQueue responseEvents;
+  private final boolean dropOnFull;
+  private final boolean measureEntityWrite;
+  private final boolean measurePayloadSize;
+  private final Map<String, LatencySloTracker.Config> latencySlos;
+  private final ConcurrentMap<String, LatencySloTracker> latencySloTrackers =
+      new ConcurrentHashMap<>();
+  private final int latencyExemplars;
+  private final Set<AggregationLevel> aggregationLevels;
+  private final Set<MetricFamily> metricFamilies;
+  private final boolean extractAllHeaders;
+  private final Map<Integer, String> histogramStatusGroups;
+  private final boolean histogramStatusClasses;
+  @Nullable
+  private final LoadSheddingPolicy loadShedding;
+  private final CounterHandle shedRequests;
+  private final ConcurrentMap<String, RouteMetrics> exemplarRoutes = new ConcurrentHashMap<>();
+  // shared by the routes of the same metric name, like their latency SLO trackers
+  private final ConcurrentMap<String, RouteLoad> routeLoads = new ConcurrentHashMap<>();
+  private final CounterHandle droppedResponseEvents;
+  // metric name of the routes reported under their own name, see Builder#maxRoutes
+  private final Set<String> routeNames = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<String, Route> overflowRoutes = new ConcurrentHashMap<>();
+  private final CounterHandle overflowedRoutes;
+  private final Map<String, String> overallAggregatedPerSourceMap;
+  private final CounterHandle[] overallCompletedCounters;
+  private final CounterHandle[] overallErrorCounters;
+  private volatile Map<ResourceMethod, Route> routes = Collections.emptyMap();
+  // every route of the application model or requested so far, by metric name. Names derive from
+  // the resource templates of the application, which bound the map
+  private final ConcurrentMap<String, Route> routesByName = new ConcurrentHashMap<>();
+  // routes missing from the startup table, by model identity, so that their name is derived once
+  private final Cache<RouteKey, Optional<Route>> requestPathRoutes =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_ROUTES).build();
+  private final LongAdder routeNameDerivations = new LongAdder();
+  private volatile GaugeHandle totalInflight;
+  // metric name of the routes excluded or included at runtime, overriding @WavefrontIgnore
+  private final ConcurrentMap<String, Boolean> routeExclusions = new ConcurrentHashMap<>();
+  private volatile boolean enabled = true;
 
   @Nullable
   private final Tracer tracer;
@@ -76,13 +185,167 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
   private WavefrontJerseyFilter(SdkReporter wfJerseyReporter,
                                 ApplicationTags applicationTags,
                                 @Nullable Tracer tracer,
-                                Set<String> headerTags) {
+                                Set<String> headerTags,
+                                TimeUnit latencyUnit,
+                                int cpuTimeSampleRate,
+                                int maxRoutes,
+                                TraceSamplingPolicy traceSamplingPolicy,
+                                int asyncMetricsCapacity,
+                                boolean dropOnFull,
+                                boolean measureEntityWrite,
+                                boolean measurePayloadSize,
+                                Map<String, LatencySloTracker.Config> latencySlos,
+                                int latencyExemplars,
+                                Set<AggregationLevel> aggregationLevels,
+                                Set<MetricFamily> metricFamilies,
+                                boolean extractAllHeaders,
+                                Map<Integer, String> histogramStatusGroups,
+                                boolean histogramStatusClasses,
+                                @Nullable LoadSheddingPolicy loadShedding) {
     Preconditions.checkNotNull(wfJerseyReporter, "Invalid JerseyReporter");
     Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
-    this.wfJerseyReporter = wfJerseyReporter;
+    this.handleResolver = MetricHandleResolver.of(wfJerseyReporter);
     this.applicationTags = applicationTags;
     this.tracer = tracer;
     this.headerTags = headerTags;
+    this.latencyUnit = latencyUnit;
+    this.maxRoutes = maxRoutes;
+    this.traceSamplingPolicy = traceSamplingPolicy;
+    this.aggregationLevels = aggregationLevels;
+    this.metricFamilies = metricFamilies;
+    // the propagation headers of other tracers are unknown, a deferred tracer is always a
+    // WavefrontTracer once built
+    this.extractAllHeaders = extractAllHeaders ||
+        !(tracer instanceof WavefrontTracer || tracer instanceof DeferredTracer);
+    this.histogramStatusGroups = histogramStatusGroups;
+    this.histogramStatusClasses = histogramStatusClasses;
+    this.loadShedding = loadShedding;
+    if (!metricFamilies.contains(MetricFamily.CPU_TIME)) {
+      this.cpuTimeSampleRate = 0;
+    } else if (cpuTimeSampleRate > 0 && !THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+      logger.log(Level.INFO, "Thread CPU time is not supported by this JVM, not reporting cpu_ns");
+      this.cpuTimeSampleRate = 0;
+    } else {
+      this.cpuTimeSampleRate = cpuTimeSampleRate;
+    }
+
+    String cluster = applicationTags.getCluster() == null ? NULL_TAG_VAL :
+        applicationTags.getCluster();
+    String shard = applicationTags.getShard() == null ? NULL_TAG_VAL : applicationTags.getShard();
+
+    Map<String, String> overallAggregatedPerApplicationMap = new HashMap<>();
+    overallAggregatedPerApplicationMap.put("source", WAVEFRONT_PROVIDED_SOURCE);
+
+    Map<String, String> overallAggregatedPerClusterMap =
+        new HashMap<>(overallAggregatedPerApplicationMap);
+    overallAggregatedPerClusterMap.put(CLUSTER_TAG_KEY, cluster);
+
+    Map<String, String> overallAggregatedPerServiceMap =
+        new HashMap<>(overallAggregatedPerClusterMap);
+    overallAggregatedPerServiceMap.put(SERVICE_TAG_KEY, applicationTags.getService());
+
+    Map<String, String> overallAggregatedPerShardMap =
+        new HashMap<>(overallAggregatedPerServiceMap);
+    overallAggregatedPerShardMap.put(SHARD_TAG_KEY, shard);
+
+    Map<String, String> overallAggregatedPerSource = new HashMap<>();
+    overallAggregatedPerSource.put(CLUSTER_TAG_KEY, cluster);
+    overallAggregatedPerSource.put(SERVICE_TAG_KEY, applicationTags.getService());
+    overallAggregatedPerSource.put(SHARD_TAG_KEY, shard);
+    overallAggregatedPerSourceMap = TagMap.of(overallAggregatedPerSource);
+
+    // tag maps are shared by every metric name using them, see TagMap
+    overallAggregatedPerApplicationMap = TagMap.of(overallAggregatedPerApplicationMap);
+    overallAggregatedPerClusterMap = TagMap.of(overallAggregatedPerClusterMap);
+    overallAggregatedPerServiceMap = TagMap.of(overallAggregatedPerServiceMap);
+    overallAggregatedPerShardMap = TagMap.of(overallAggregatedPerShardMap);
+
+    /*
+     * Overall response metrics
+     * 1) jersey.server.response.completed.aggregated_per_source.count (Counter)
+     * 2) jersey.server.response.completed.aggregated_per_shard.count (DeltaCounter)
+     * 3) jersey.server.response.completed.aggregated_per_service.count (DeltaCounter)
+     * 4) jersey.server.response.completed.aggregated_per_cluster.count (DeltaCounter)
+     * 5) jersey.server.response.completed.aggregated_per_application.count (DeltaCounter)
+     */
+    overallCompletedCounters = overallCounters(MetricFamily.COMPLETED, "response.completed",
+        overallAggregatedPerSourceMap, overallAggregatedPerShardMap,
+        overallAggregatedPerServiceMap, overallAggregatedPerClusterMap,
+        overallAggregatedPerApplicationMap);
+
+    /*
+     * Overall error response metrics
+     * 1) jersey.server.response.errors.aggregated_per_source (Counter)
+     * 2) jersey.server.response.errors.aggregated_per_shard (DeltaCounter)
+     * 3) jersey.server.response.errors.aggregated_per_service (DeltaCounter)
+     * 4) jersey.server.response.errors.aggregated_per_cluster (DeltaCounter)
+     * 5) jersey.server.response.errors.aggregated_per_application (DeltaCounter)
+     */
+    overallErrorCounters = overallCounters(MetricFamily.ERRORS, "response.errors",
+        overallAggregatedPerSourceMap, overallAggregatedPerShardMap,
+        overallAggregatedPerServiceMap, overallAggregatedPerClusterMap,
+        overallAggregatedPerApplicationMap);
+
+    /*
+     * Requests reported under the overflow route: jersey.server.routes.overflowed.count (Counter)
+     */
+    overflowedRoutes = handleResolver.counter(new MetricName("routes.overflowed",
+        overallAggregatedPerSourceMap));
+
+    /*
+     * Responses not recorded since the response event queue was full, failed to record them or
+     * was closed before it could: jersey.server.response.events.dropped.count (Counter)
+     */
+    droppedResponseEvents = handleResolver.counter(new MetricName("response.events.dropped",
+        overallAggregatedPerSourceMap));
+
+    /*
+     * Requests rejected by load shedding: jersey.server.request.shed.count (Counter)
+     */
+    shedRequests = handleResolver.counter(new MetricName("request.shed",
+        overallAggregatedPerSourceMap));
+    this.dropOnFull = dropOnFull;
+    this.measureEntityWrite = measureEntityWrite;
+    this.measurePayloadSize = measurePayloadSize;
+    this.latencySlos = latencySlos;
+    this.latencyExemplars = tracer == null ? 0 : latencyExemplars;
+    this.responseEvents = asyncMetricsCapacity > 0 ?
+        new ResponseEventQueue(asyncMetricsCapacity, this::recordResponse,
+            droppedResponseEvents) : null;
+  }
+
+  private CounterHandle[] overallCounters(MetricFamily family, String prefix,
+                                          Map<String, String> perSourceMap,
+                                          Map<String, String> perShardMap,
+                                          Map<String, String> perServiceMap,
+                                          Map<String, String> perClusterMap,
+                                          Map<String, String> perApplicationMap) {
+    if (!metricFamilies.contains(family)) {
+      return new CounterHandle[0];
+    }
+    List<CounterHandle> counters = new ArrayList<>();
+    if (aggregationLevels.contains(AggregationLevel.SOURCE)) {
+      counters.add(handleResolver.counter(new MetricName(prefix + ".aggregated_per_source",
+          perSourceMap)));
+    }
+    if (applicationTags.getShard() != null && aggregationLevels.contains(AggregationLevel.SHARD)) {
+      counters.add(handleResolver.deltaCounter(new MetricName(prefix + ".aggregated_per_shard",
+          perShardMap)));
+    }
+    if (aggregationLevels.contains(AggregationLevel.SERVICE)) {
+      counters.add(handleResolver.deltaCounter(new MetricName(prefix +
+          ".aggregated_per_service", perServiceMap)));
+    }
+    if (applicationTags.getCluster() != null &&
+        aggregationLevels.contains(AggregationLevel.CLUSTER)) {
+      counters.add(handleResolver.deltaCounter(new MetricName(prefix +
+          ".aggregated_per_cluster", perClusterMap)));
+    }
+    if (aggregationLevels.contains(AggregationLevel.APPLICATION)) {
+      counters.add(handleResolver.deltaCounter(new MetricName(prefix +
+          ".aggregated_per_application", perApplicationMap)));
+    }
+    return counters.toArray(new CounterHandle[0]);
   }
 
   public static final class Builder {
@@ -92,6 +355,23 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     private final Set<String> headerTags = new HashSet<>();
     @Nullable
     private Tracer tracer;
+    private TimeUnit latencyUnit = TimeUnit.MILLISECONDS;
+    private int cpuTimeSampleRate = 1;
+    private int maxRoutes = 1000;
+    private TraceSamplingPolicy traceSamplingPolicy = TraceSamplingPolicy.ALWAYS;
+    private int asyncMetricsCapacity = 0;
+    private boolean dropOnFull = true;
+    private boolean measureEntityWrite = false;
+    private boolean measurePayloadSize = false;
+    private final Map<String, LatencySloTracker.Config> latencySlos = new HashMap<>();
+    private int latencyExemplars = 0;
+    private Set<AggregationLevel> aggregationLevels = EnumSet.allOf(AggregationLevel.class);
+    private Set<MetricFamily> metricFamilies = EnumSet.allOf(MetricFamily.class);
+    private boolean extractAllHeaders = false;
+    private final Map<Integer, String> histogramStatusGroups = new HashMap<>();
+    private boolean histogramStatusClasses = false;
+    @Nullable
+    private LoadSheddingPolicy loadShedding;
 
     public Builder(SdkReporter wfJerseyReporter, ApplicationTags applicationTags) {
       this.wfJerseyReporter = wfJerseyReporter;
@@ -108,8 +388,250 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
       return this;
     }
 
+    /**
+     * Set the unit in which the latency histogram and the total time counter are reported.
+     * Latency is always measured with a monotonic nanosecond clock.
+     *
+     * @param latencyUnit one of {@link TimeUnit#MILLISECONDS} (default),
+     *                    {@link TimeUnit#MICROSECONDS} or {@link TimeUnit#NANOSECONDS}.
+     * @return {@code this}.
+     */
+    public Builder latencyUnit(TimeUnit latencyUnit) {
+      Preconditions.checkArgument(latencyUnit == TimeUnit.MILLISECONDS ||
+          latencyUnit == TimeUnit.MICROSECONDS || latencyUnit == TimeUnit.NANOSECONDS,
+          "Invalid latencyUnit");
+      this.latencyUnit = latencyUnit;
+      return this;
+    }
+
+    /**
+     * Set how often the CPU time of a request is measured for the cpu_ns histogram. Measuring
+     * CPU time costs two thread CPU clock reads per request.
+     *
+     * @param cpuTimeSampleRate measure one in every {@code cpuTimeSampleRate} requests; 1
+     *                          (default) measures every request and 0 disables the measurement.
+     * @return {@code this}.
+     */
+    public Builder cpuTimeSampleRate(int cpuTimeSampleRate) {
+      Preconditions.checkArgument(cpuTimeSampleRate >= 0, "Invalid cpuTimeSampleRate");
+      this.cpuTimeSampleRate = cpuTimeSampleRate;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of distinct routes (API path and HTTP method) reported with their own
+     * metrics. A route counts against the maximum once it is first requested. Requests to further
+     * routes, e.g. paths of sub-resource locators, are reported under the
+     * {@code other.<HTTP method>} route instead and counted by the {@code routes.overflowed}
+     * counter, so that the number of reported series stays bounded.
+     *
+     * @param maxRoutes maximum number of distinct routes, 1000 by default.
+     * @return {@code this}.
+     */
+    public Builder maxRoutes(int maxRoutes) {
+      Preconditions.checkArgument(maxRoutes > 0, "Invalid maxRoutes");
+      this.maxRoutes = maxRoutes;
+      return this;
+    }
+
+    /**
+     * Set the policy deciding which requests are traced, if a tracer is set. Every request is
+     * traced by default.
+     *
+     * @param traceSamplingPolicy the sampling policy.
+     * @return {@code this}.
+     */
+    public Builder traceSampling(TraceSamplingPolicy traceSamplingPolicy) {
+      Preconditions.checkNotNull(traceSamplingPolicy, "Invalid traceSamplingPolicy");
+      this.traceSamplingPolicy = traceSamplingPolicy;
+      return this;
+    }
+
+    /**
+     * Record the response metrics on a dedicated thread instead of the request thread. Responses
+     * are published as fixed size events to a bounded lock-free queue, which the dedicated thread
+     * drains in batches. Inflight gauges are still updated on the request thread. Pending
+     * responses are recorded when the application is destroyed, later ones on their request
+     * thread.
+     *
+     * @param capacity   maximum number of pending responses, rounded up to a power of two.
+     * @param dropOnFull whether to drop responses while the queue is full, counted by the
+     *                   {@code response.events.dropped} counter, or to record them on the
+     *                   request thread.
+     * @return {@code this}.
+     */
+    public Builder asyncMetrics(int capacity, boolean dropOnFull) {
+      Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Invalid capacity");
+      this.asyncMetricsCapacity = capacity;
+      this.dropOnFull = dropOnFull;
+      return this;
+    }
+
+    /**
+     * Measure the latency of responses with an entity once the entity has been written rather
+     * than when the response filter runs, and report the time spent writing the entity
+     * ({@code .serialization_ns}) per route. Its size is reported with
+     * {@link #measurePayloadSize(boolean)}. With
+     * {@link #latencyExemplars(int)}, the spans of such responses also end once the entity has
+     * been written.
+     *
+     * @param measureEntityWrite whether to measure the entity write, false by default.
+     * @return {@code this}.
+     */
+    public Builder measureEntityWrite(boolean measureEntityWrite) {
+      this.measureEntityWrite = measureEntityWrite;
+      return this;
+    }
+
+    /**
+     * Report the size of request entities ({@code .request_bytes}) and response entities
+     * ({@code .response_bytes}) per route. Request entities without a content length are counted
+     * as they are read, entities are never buffered.
+     *
+     * @param measurePayloadSize whether to measure the entity sizes, false by default.
+     * @return {@code this}.
+     */
+    public Builder measurePayloadSize(boolean measurePayloadSize) {
+      this.measurePayloadSize = measurePayloadSize;
+      return this;
+    }
+
+    /**
+     * Set the latency objective of a route, overriding the {@link LatencySlo} annotation of its
+     * resource method. Good and bad responses of the route are counted by the
+     * {@code .slo.good} and {@code .slo.bad} delta counters. A threshold finer than the
+     * {@link #latencyUnit(TimeUnit) latency unit} is rounded up to it.
+     *
+     * @param route     metric name of the route, e.g. {@code api.v2.alert.summary.GET}.
+     * @param threshold latency threshold of a good response.
+     * @param unit      unit of the threshold.
+     * @param objective targeted ratio of good responses, in (0, 1).
+     * @return {@code this}.
+     */
+    public Builder latencySlo(String route, long threshold, TimeUnit unit, double objective) {
+      Preconditions.checkNotNull(route, "Invalid route");
+      Preconditions.checkArgument(threshold > 0, "Invalid threshold");
+      Preconditions.checkArgument(objective > 0 && objective < 1, "Invalid objective");
+      latencySlos.put(route, new LatencySloTracker.Config(threshold, unit, objective));
+      return this;
+    }
+
+    /**
+     * Keep the slowest traced requests of every route and status code per minute as exemplars of
+     * the {@code .latency} histogram. Their spans are tagged with
+     * {@code jersey.latency.exemplar=true} and their trace ids are available from
+     * {@link WavefrontJerseyFilter#getLatencyExemplars(String)}. Requires a tracer, only
+     * requests which are traced can be exemplars.
+     *
+     * @param latencyExemplars number of exemplars kept per route, status code and minute, 0
+     *                         (default) to keep none.
+     * @return {@code this}.
+     */
+    public Builder latencyExemplars(int latencyExemplars) {
+      Preconditions.checkArgument(latencyExemplars >= 0, "Invalid latencyExemplars");
+      this.latencyExemplars = latencyExemplars;
+      return this;
+    }
+
+    /**
+     * Set the levels at which the response counters are reported, all by default. Each disabled
+     * level saves the update of one completed counter per response and one error counter per
+     * error response. The handles of every route only include the enabled levels.
+     *
+     * @param aggregationLevels levels to report.
+     * @return {@code this}.
+     */
+    public Builder aggregationLevels(Set<AggregationLevel> aggregationLevels) {
+      Preconditions.checkNotNull(aggregationLevels, "Invalid aggregationLevels");
+      this.aggregationLevels = EnumSet.noneOf(AggregationLevel.class);
+      this.aggregationLevels.addAll(aggregationLevels);
+      return this;
+    }
+
+    /**
+     * Set the families of metrics which are reported, all by default. Latency objectives and the
+     * opt-in entity metrics are configured separately.
+     *
+     * @param metricFamilies families to report.
+     * @return {@code this}.
+     */
+    public Builder metricFamilies(Set<MetricFamily> metricFamilies) {
+      Preconditions.checkNotNull(metricFamilies, "Invalid metricFamilies");
+      this.metricFamilies = EnumSet.noneOf(MetricFamily.class);
+      this.metricFamilies.addAll(metricFamilies);
+      return this;
+    }
+
+    /**
+     * Pass every request header to the tracer when extracting the trace context of a request.
+     * By default only the headers of the propagators of {@link WavefrontTracer} are looked up
+     * ({@code wf-ot-*}, {@code uber-trace-id} and {@code uberctx-*}); set this if the tracer is
+     * configured with propagators using other headers. Always the case for other tracers.
+     *
+     * @param extractAllHeaders whether to pass every header to the tracer, false by default.
+     * @return {@code this}.
+     */
+    public Builder extractAllHeaders(boolean extractAllHeaders) {
+      this.extractAllHeaders = extractAllHeaders;
+      return this;
+    }
+
+    /**
+     * Report the histograms ({@code .latency}, {@code .cpu_ns} and the entity histograms) of a
+     * route per status class, e.g. {@code response.api.v2.alert.summary.GET.4xx.latency}, rather
+     * than per status code. Counters are still reported per status code. Status codes in a
+     * {@link #histogramStatusGroup(String, int...) status group} are reported per group instead.
+     *
+     * @param histogramStatusClasses whether to report histograms per status class, false by
+     *                               default.
+     * @return {@code this}.
+     */
+    public Builder histogramStatusClasses(boolean histogramStatusClasses) {
+      this.histogramStatusClasses = histogramStatusClasses;
+      return this;
+    }
+
+    /**
+     * Report the histograms of the given status codes under a single status group, e.g.
+     * {@code response.api.v2.alert.summary.GET.client_error.latency}. Counters are still reported
+     * per status code.
+     *
+     * @param group    name of the group, used in the histogram names.
+     * @param statuses HTTP status codes of the group.
+     * @return {@code this}.
+     */
+    public Builder histogramStatusGroup(String group, int... statuses) {
+      Preconditions.checkArgument(group != null && !group.isEmpty(), "Invalid group");
+      for (int status : statuses) {
+        Preconditions.checkArgument(status >= 100 && status <= 599, "Invalid status");
+        histogramStatusGroups.put(status, group);
+      }
+      return this;
+    }
+
+    /**
+     * Reject requests beyond the concurrency limit of their route, see
+     * {@link LoadSheddingPolicy}. Rejected requests are counted by the
+     * {@code request.<route>.shed} and {@code request.shed} counters. The routes of the same
+     * metric name share their limit, and the overflow routes of {@link #maxRoutes} have none.
+     * Disabled by default.
+     *
+     * @param loadShedding the load shedding policy.
+     * @return {@code this}.
+     */
+    public Builder loadShedding(LoadSheddingPolicy loadShedding) {
+      Preconditions.checkNotNull(loadShedding, "Invalid loadShedding");
+      this.loadShedding = loadShedding;
+      return this;
+    }
+
     public WavefrontJerseyFilter build() {
-      return new WavefrontJerseyFilter(wfJerseyReporter, applicationTags, tracer, headerTags);
+      return new WavefrontJerseyFilter(wfJerseyReporter, applicationTags, tracer, headerTags,
+          latencyUnit, cpuTimeSampleRate, maxRoutes, traceSamplingPolicy, asyncMetricsCapacity,
+          dropOnFull, measureEntityWrite, measurePayloadSize, new HashMap<>(latencySlos),
+          latencyExemplars, EnumSet.copyOf(aggregationLevels), EnumSet.copyOf(metricFamilies),
+          extractAllHeaders, new HashMap<>(histogramStatusGroups), histogramStatusClasses,
+          loadShedding);
     }
   }
 
@@ -132,61 +654,179 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     }
   }
 
+  @Override
+  public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException,
+      WebApplicationException {
+    if (measurePayloadSize) {
+      StatsContext statsContext = (StatsContext) context.getProperty(STATS_CONTEXT_PROPERTY);
+      if (statsContext != null && statsContext != EXCLUDED &&
+          statsContext.getRequestLength() == NO_SIZE) {
+        // no content length, count the bytes read by the entity provider instead
+        CountingInputStream inputStream = new CountingInputStream(context.getInputStream());
+        context.setInputStream(inputStream);
+        statsContext.setRequestEntity(inputStream);
+      }
+    }
+    return context.proceed();
+  }
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException,
+      WebApplicationException {
+    StatsContext statsContext = measureEntityWrite || measurePayloadSize ?
+        (StatsContext) context.getProperty(STATS_CONTEXT_PROPERTY) : null;
+    RouteMetrics.StatusMetrics statusMetrics = statsContext == null ||
+        statsContext == EXCLUDED ? null : statsContext.takePendingWrite();
+    if (statusMetrics == null) {
+      context.proceed();
+      return;
+    }
+    CountingOutputStream outputStream = new CountingOutputStream(context.getOutputStream());
+    context.setOutputStream(outputStream);
+    long writeStartNanos = System.nanoTime();
+    try {
+      context.proceed();
+    } finally {
+      try {
+        recordEntityWrite(statsContext, statusMetrics, writeStartNanos, outputStream.getCount());
+      } catch (Throwable t) {
+        logger.log(Level.SEVERE, "Exception measuring jersey entity write", t);
+      }
+    }
+  }
+
+  private void recordEntityWrite(StatsContext statsContext,
+                                 RouteMetrics.StatusMetrics statusMetrics, long writeStartNanos,
+                                 long bytes) {
+    long endNanos = System.nanoTime();
+    /*
+     * WavefrontHistograms
+     * 1) jersey.server.response.api.v2.alert.summary.GET.200.latency
+     * 2) jersey.server.response.api.v2.alert.summary.GET.200.serialization_ns
+     * 3) jersey.server.response.api.v2.alert.summary.GET.200.response_bytes
+     */
+    if (measureEntityWrite) {
+      long apiLatency = latencyUnit.convert(endNanos - statsContext.getStartNanos(),
+          TimeUnit.NANOSECONDS);
+      LatencySloTracker latencySlo = statsContext.getRoute().getLatencySlo();
+      if (latencySlo != null) {
+        latencySlo.record(apiLatency, statusMetrics.getStatus());
+      }
+      if (statsContext.getRoute().getLoad() != null) {
+        statsContext.getRoute().getLoad().record(apiLatency);
+      }
+      statusMetrics.getLatency().update(apiLatency);
+      Span span = statsContext.takePendingSpan();
+      if (span != null) {
+        // deferred by the response filter, so that the exemplar has the latency recorded here
+        offerLatencyExemplar(statusMetrics, apiLatency, span);
+        span.finish();
+      }
+      statusMetrics.getSerializationNanos().update(endNanos - writeStartNanos);
+      /*
+       * total time spent counter: jersey.server.response.api.v2.alert.summary.GET.200.total_time
+       */
+      statusMetrics.getTotalTime().inc(apiLatency);
+    }
+    statusMetrics.getResponseBytes().update(bytes);
+  }
+
   private void processRequest(ContainerRequestContext containerRequestContext) {
+    if (!enabled) {
+      return;
+    }
     if (containerRequestContext instanceof ContainerRequest) {
       ContainerRequest request = (ContainerRequest) containerRequestContext;
-      long startTime = System.currentTimeMillis();
-      long startTimeCpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
-      Optional<Pair<String, String>> pairOptional = MetricNameUtils.metricNameAndPath(request);
-      if (!pairOptional.isPresent()) {
-        statsContextThreadLocal.set(new StatsContext(startTime, startTimeCpuNanos, null, null));
+      long startNanos = System.nanoTime();
+      Route requestedRoute = route(request);
+      if (requestedRoute == null) {
+        containerRequestContext.setProperty(STATS_CONTEXT_PROPERTY,
+            new StatsContext(startNanos, NO_CPU_TIME, NO_SIZE, null, null, null, false));
         return;
       }
-      String requestMetricKey = REQUEST_PREFIX + pairOptional.get()._1;
-      String finalMatchingPath = pairOptional.get()._2;
-      ExtendedUriInfo uriInfo = request.getUriInfo();
-      Pair<String, String> pair = getClassAndMethodName(uriInfo);
-      String finalClassName = pair._1;
-      String finalMethodName = pair._2;
-      String spanOperationName = getSpanOperationName(finalClassName, finalMethodName);
+      Route reportedRoute = reportedRoute(requestedRoute);
+      if (reportedRoute == null) {
+        containerRequestContext.setProperty(STATS_CONTEXT_PROPERTY, EXCLUDED);
+        return;
+      }
+      RouteMetrics route = reportedRoute.getMetrics();
+
+      RouteLoad load = route.getLoad();
+      if (load != null && !load.tryAcquire()) {
+        // rejected before any span or inflight work; the response filter records the 503
+        route.getShedCounter().inc();
+        shedRequests.inc();
+        containerRequestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).
+            header(HttpHeaders.RETRY_AFTER, loadShedding.getRetryAfterSeconds()).build());
+        return;
+      }
+
+      // sampled once the request is admitted on a known route, so that unmatched and rejected
+      // requests neither take a sample nor pay for the thread CPU clock
+      long startTimeCpuNanos = sampleCpuTime() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() :
+          NO_CPU_TIME;
 
+      boolean traceErrors = false;
       if (tracer != null) {
-        Tracer.SpanBuilder spanBuilder = tracer.buildSpan(spanOperationName).
-            withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).
-            withTag("jersey.resource.class", finalClassName).
-            withTag("jersey.path", finalMatchingPath);
-        SpanContext parentSpanContext = parentSpanContext(containerRequestContext);
-        if (parentSpanContext != null) {
-          spanBuilder.asChildOf(parentSpanContext);
+        try {
+          traceErrors = startTrace(containerRequestContext, route);
+        } catch (RuntimeException e) {
+          if (load != null) {
+            // the request is not tracked without a stats context, so release it here
+            load.release();
+          }
+          throw e;
         }
-
-        handleHeaderTags(containerRequestContext, spanBuilder);
-
-        Span span = spanBuilder.start();
-        Scope scope = tracer.activateSpan(span);
-        decorateRequest(containerRequestContext, span);
-        containerRequestContext.setProperty(PROPERTY_NAME, new SpanWrapper(span, scope));
       }
 
       /* Gauges
        * 1) jersey.server.request.api.v2.alert.summary.GET.inflight
        * 2) jersey.server.total_requests.inflight
        */
-      AtomicInteger apiInflight = getGaugeValue(new MetricName(requestMetricKey + ".inflight",
-          getCompleteTagsMap(finalClassName, finalMethodName, spanOperationName)));
-      apiInflight.incrementAndGet();
-      AtomicInteger totalInflight = getGaugeValue(new MetricName("total_requests.inflight",
-          new HashMap<String, String>() {{
-            put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-                applicationTags.getCluster());
-            put(SERVICE_TAG_KEY, applicationTags.getService());
-            put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-                applicationTags.getShard());
-          }}));
-      totalInflight.incrementAndGet();
-      statsContextThreadLocal.set(new StatsContext(startTime, startTimeCpuNanos, apiInflight,
-          totalInflight));
+      GaugeHandle apiInflight = route.getApiInflight();
+      apiInflight.inc();
+      GaugeHandle totalInflight = getTotalInflight();
+      totalInflight.inc();
+      containerRequestContext.setProperty(STATS_CONTEXT_PROPERTY,
+          new StatsContext(startNanos, startTimeCpuNanos,
+              measurePayloadSize ? request.getLength() : NO_SIZE, route, apiInflight,
+              totalInflight, traceErrors));
+    }
+  }
+
+  /**
+   * Starts the span of a request if the sampling policy decides to trace it.
+   *
+   * @return true if the request was not traced but should be if its response is an error.
+   */
+  private boolean startTrace(ContainerRequestContext containerRequestContext,
+                             RouteMetrics route) {
+    // decided before any span work, so dropped requests do not pay for it
+    TraceSamplingPolicy.Decision decision = traceSamplingPolicy.decide(
+        containerRequestContext.getHeaders(), route.getMetricName());
+    if (decision == TraceSamplingPolicy.Decision.SAMPLE) {
+      Span span = spanBuilder(containerRequestContext, route).start();
+      Scope scope = tracer.activateSpan(span);
+      decorateRequest(containerRequestContext, span);
+      containerRequestContext.setProperty(PROPERTY_NAME, new SpanWrapper(span, scope));
+      return false;
+    }
+    return decision == TraceSamplingPolicy.Decision.SAMPLE_ERRORS;
+  }
+
+  private Tracer.SpanBuilder spanBuilder(ContainerRequestContext containerRequestContext,
+                                         RouteMetrics route) {
+    Tracer.SpanBuilder spanBuilder = tracer.buildSpan(route.getOperationName()).
+        withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER).
+        withTag("jersey.resource.class", route.getClassName()).
+        withTag("jersey.path", route.getMatchingPath());
+    SpanContext parentSpanContext = parentSpanContext(containerRequestContext);
+    if (parentSpanContext != null) {
+      spanBuilder.asChildOf(parentSpanContext);
     }
+
+    handleHeaderTags(containerRequestContext, spanBuilder);
+    return spanBuilder;
   }
 
   private void handleHeaderTags(ContainerRequestContext containerRequestContext,
@@ -209,17 +849,23 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
 
   private void processResponse(ContainerRequestContext containerRequestContext,
                                ContainerResponseContext containerResponseContext) {
+    boolean traced = false;
     if (tracer != null) {
       try {
         SpanWrapper spanWrapper = (SpanWrapper) containerRequestContext.getProperty(PROPERTY_NAME);
         if (spanWrapper != null) {
-          Scope scope = spanWrapper.getScope();
-          if (scope != null) {
-            Span span = spanWrapper.getSpan();
-            if (span != null) {
-              decorateResponse(containerResponseContext, span);
+          traced = true;
+          Span span = spanWrapper.getSpan();
+          if (span != null) {
+            decorateResponse(containerResponseContext, span);
+            if (!deferSpan(containerRequestContext, containerResponseContext, span)) {
+              offerLatencyExemplar(containerRequestContext, containerResponseContext, span);
               span.finish();
             }
+          }
+          // null if already closed on the request thread, see onRequestEvent
+          Scope scope = spanWrapper.getScope();
+          if (scope != null) {
             scope.close();
           }
         }
@@ -229,226 +875,528 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     }
     if (containerRequestContext instanceof ContainerRequest) {
       ContainerRequest request = (ContainerRequest) containerRequestContext;
-      ExtendedUriInfo uriInfo = request.getUriInfo();
-
-      Pair<String, String> pair = getClassAndMethodName(uriInfo);
-      String finalClassName = pair._1;
-      String finalMethodName = pair._2;
-      String spanOperationName = getSpanOperationName(finalClassName, finalMethodName);
+      StatsContext statsContext =
+          (StatsContext) containerRequestContext.getProperty(STATS_CONTEXT_PROPERTY);
+      if (statsContext == null && !enabled) {
+        // not seen by the request filter since the filter is disabled
+        return;
+      }
+      RouteMetrics route = statsContext == null ? reportedMetrics(request) :
+          statsContext.getRoute();
+      if (route == null) {
+        return;
+      }
+      if (!traced && statsContext != null && statsContext.isTraceErrors() &&
+          isErrorStatusCode(containerResponseContext)) {
+        // error of a request which was not sampled, trace it after the fact
+        long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()) -
+            TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - statsContext.getStartNanos());
+        Span span = spanBuilder(containerRequestContext, route).
+            withStartTimestamp(startMicros).start();
+        decorateRequest(containerRequestContext, span);
+        decorateResponse(containerResponseContext, span);
+        span.finish();
+        traced = true;
+      }
+      if (traced) {
+        containerResponseContext.getHeaders().add(WF_SPAN_HEADER, route.getMatchingPath());
+      }
 
-      Optional<Pair<String, String>> apiPathOptionalPair =
-          MetricNameUtils.metricNameAndPath(request);
-      if (!apiPathOptionalPair.isPresent()) {
+      int status = containerResponseContext.getStatus();
+      if (statsContext == null) {
+        recordResponse(route, status, NO_LATENCY, NO_CPU_TIME, NO_SIZE);
+        return;
+      }
+      if (!statsContext.complete()) {
+        // the response filters already ran for this request
         return;
       }
-      if (tracer != null) {
-        String matchingPath = apiPathOptionalPair.get()._2;
-        containerResponseContext.getHeaders().add(WF_SPAN_HEADER, matchingPath);
-      }
-
-      String responseMetricKeyWithoutStatus = RESPONSE_PREFIX + apiPathOptionalPair.get()._1;
-      String responseMetricKey =
-          responseMetricKeyWithoutStatus + "." + containerResponseContext.getStatus();
-
-      Map<String, String> completeTagsMap = getCompleteTagsMap(
-          finalClassName, finalMethodName, spanOperationName);
-
-      // Response metrics and histograms below
-      Map<String, String> aggregatedPerShardMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerSourceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-      }};
-
-      Map<String, String> overallAggregatedPerShardMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put(SHARD_TAG_KEY, applicationTags.getShard() == null ? NULL_TAG_VAL :
-            applicationTags.getShard());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerServiceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerServiceMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put(SERVICE_TAG_KEY, applicationTags.getService());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerClusterMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerClusterMap = new HashMap<String, String>() {{
-        put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-            applicationTags.getCluster());
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> aggregatedPerApplicationMap = new HashMap<String, String>() {{
-        put("jersey.resource.class", finalClassName);
-        put("jersey" + ".resource.method", finalMethodName);
-        put("operationName", spanOperationName);
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
-
-      Map<String, String> overallAggregatedPerApplicationMap = new HashMap<String, String>() {{
-        put("source", WAVEFRONT_PROVIDED_SOURCE);
-      }};
 
-      /*
-       * Granular response metrics
-       * 1) jersey.server.response.api.v2.alert.summary.GET.200.cumulative.count (Counter)
-       * 2) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_shard.count (DeltaCounter)
-       * 3) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_service.count (DeltaCounter)
-       * 4) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_cluster.count (DeltaCounter)
-       * 5) jersey.server.response.api.v2.alert.summary.GET.200.aggregated_per_application.count (DeltaCounter)
-       * 6) jersey.server.response.api.v2.alert.summary.GET.errors (Counter)
+      /* Gauges - update api inflight and total inflight gauges
+       * 1) jersey.server.request.api.v2.alert.summary.GET.inflight
+       * 2) jersey.server.total_requests.inflight
        */
-      wfJerseyReporter.incrementCounter(new MetricName(responseMetricKey +
-          ".cumulative", completeTagsMap));
-      if (applicationTags.getShard() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-            ".aggregated_per_shard", aggregatedPerShardMap));
+      if (statsContext.getApiInflight() != null) {
+        statsContext.getApiInflight().dec();
       }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-          ".aggregated_per_service", aggregatedPerServiceMap));
-      if (applicationTags.getCluster() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-            ".aggregated_per_cluster", aggregatedPerClusterMap));
+
+      if (statsContext.getTotalInflight() != null) {
+        statsContext.getTotalInflight().dec();
+      }
+      if (route.getLoad() != null) {
+        route.getLoad().release();
       }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName(responseMetricKey +
-          ".aggregated_per_application", aggregatedPerApplicationMap));
 
-      /*
-       * Overall error response metrics
-       * 1) jersey.server.response.errors.aggregated_per_source (Counter)
-       * 2) jersey.server.response.errors.aggregated_per_shard (DeltaCounter)
-       * 3) jersey.server.response.errors.aggregated_per_service (DeltaCounter)
-       * 4) jersey.server.response.errors.aggregated_per_cluster (DeltaCounter)
-       * 5) jersey.server.response.errors.aggregated_per_application (DeltaCounter)
-       */
-      if (isErrorStatusCode(containerResponseContext)) {
-        wfJerseyReporter.incrementCounter(new MetricName(responseMetricKeyWithoutStatus + ".errors",
-            completeTagsMap));
-        wfJerseyReporter.incrementCounter(new MetricName("response.errors",
-            completeTagsMap));
-        wfJerseyReporter.incrementCounter(new MetricName(
-            "response.errors.aggregated_per_source", overallAggregatedPerSourceMap));
-        if (applicationTags.getShard() != null) {
-          wfJerseyReporter.incrementDeltaCounter(new MetricName(
-              "response.errors.aggregated_per_shard", overallAggregatedPerShardMap));
-        }
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(
-            "response.errors.aggregated_per_service", overallAggregatedPerServiceMap));
-        if (applicationTags.getCluster() != null) {
-          wfJerseyReporter.incrementDeltaCounter(new MetricName(
-              "response.errors.aggregated_per_cluster", overallAggregatedPerClusterMap));
+      // CPU time of another thread is meaningless for async resources resumed elsewhere
+      long cpuNanos = NO_CPU_TIME;
+      if (statsContext.getStartCpuNanos() != NO_CPU_TIME && statsContext.isRequestThread()) {
+        cpuNanos = THREAD_MX_BEAN.getCurrentThreadCpuTime() - statsContext.getStartCpuNanos();
+      }
+      boolean measureWrite = (measureEntityWrite || measurePayloadSize) &&
+          containerResponseContext.hasEntity();
+      if (measureWrite) {
+        statsContext.setPendingWrite(route.forStatus(status));
+      }
+      long apiLatency;
+      if (measureWrite && measureEntityWrite) {
+        // measured by aroundWriteTo once the entity has been written
+        apiLatency = NO_LATENCY;
+      } else {
+        apiLatency = latencyUnit.convert(System.nanoTime() - statsContext.getStartNanos(),
+            TimeUnit.NANOSECONDS);
+      }
+
+      long requestBytes = statsContext.getRequestBytes();
+
+      if (responseEvents == null) {
+        recordResponse(route, status, apiLatency, cpuNanos, requestBytes);
+      } else if (!responseEvents.offer(route, status, apiLatency, cpuNanos, requestBytes)) {
+        // the queue is only closed once the application is destroyed
+        if (dropOnFull && !responseEvents.isClosed()) {
+          droppedResponseEvents.inc();
+        } else {
+          recordResponse(route, status, apiLatency, cpuNanos, requestBytes);
         }
-        wfJerseyReporter.incrementDeltaCounter(new MetricName(
-            "response.errors.aggregated_per_application", overallAggregatedPerApplicationMap));
       }
+    }
+  }
+
+  /**
+   * Defers the latency exemplar and the end of the span of a request until its response entity
+   * has been written, if its latency is measured then, see {@link Builder#measureEntityWrite}.
+   *
+   * @return true if the span is finished once the entity has been written.
+   */
+  private boolean deferSpan(ContainerRequestContext containerRequestContext,
+                            ContainerResponseContext containerResponseContext, Span span) {
+    if (latencyExemplars == 0 || !measureEntityWrite || !containerResponseContext.hasEntity()) {
+      return false;
+    }
+    StatsContext statsContext =
+        (StatsContext) containerRequestContext.getProperty(STATS_CONTEXT_PROPERTY);
+    if (statsContext == null || statsContext.getRoute() == null) {
+      return false;
+    }
+    statsContext.setPendingSpan(span);
+    return true;
+  }
+
+  /**
+   * Keeps the span of a request as a latency exemplar of its route if it is one of the slowest of
+   * the current minute, and tags it as such.
+   */
+  private void offerLatencyExemplar(ContainerRequestContext containerRequestContext,
+                                    ContainerResponseContext containerResponseContext, Span span) {
+    if (latencyExemplars == 0) {
+      return;
+    }
+    StatsContext statsContext =
+        (StatsContext) containerRequestContext.getProperty(STATS_CONTEXT_PROPERTY);
+    if (statsContext == null || statsContext.getRoute() == null) {
+      return;
+    }
+    long apiLatency = latencyUnit.convert(System.nanoTime() - statsContext.getStartNanos(),
+        TimeUnit.NANOSECONDS);
+    offerLatencyExemplar(statsContext.getRoute().forStatus(containerResponseContext.getStatus()),
+        apiLatency, span);
+  }
+
+  private void offerLatencyExemplar(RouteMetrics.StatusMetrics statusMetrics, long apiLatency,
+                                    Span span) {
+    ExemplarReservoir exemplars = statusMetrics.getLatencyExemplars();
+    if (exemplars != null && exemplars.offer(apiLatency, span.context())) {
+      span.setTag("jersey.latency.exemplar", true);
+    }
+  }
+
+  /**
+   * Records the response metrics of a request, either on the request thread or on the consumer
+   * thread of the response event queue.
+   *
+   * @param latency  latency in the configured unit, or {@link #NO_LATENCY}.
+   * @param cpuNanos CPU time in nanoseconds, or {@link #NO_CPU_TIME}.
+   * @param requestBytes size of the request entity, or {@link #NO_SIZE}.
+   */
+  private void recordResponse(RouteMetrics route, int status, long latency, long cpuNanos,
+                              long requestBytes) {
+    /*
+     * Granular and overall response metrics, see RouteMetrics.StatusMetrics
+     * e.g. jersey.server.response.api.v2.alert.summary.GET.200.cumulative.count (Counter)
+     */
+    RouteMetrics.StatusMetrics statusMetrics = route.forStatus(status);
+    for (CounterHandle counter : statusMetrics.getCompletedCounters()) {
+      counter.inc();
+    }
+
+    /*
+     * Error response metrics, see RouteMetrics
+     * e.g. jersey.server.response.api.v2.alert.summary.GET.errors (Counter)
+     */
+    if (isErrorStatusCode(status)) {
+      for (CounterHandle counter : route.getErrorCounters()) {
+        counter.inc();
+      }
+    }
 
+    /*
+     * WavefrontHistograms
+     * 1) jersey.server.response.api.v2.alert.summary.GET.200.latency
+     * 2) jersey.server.response.api.v2.alert.summary.GET.200.cpu_ns
+     */
+    if (cpuNanos != NO_CPU_TIME) {
+      statusMetrics.getCpuNanos().update(cpuNanos);
+    }
+    if (latency != NO_LATENCY) {
+      if (route.getLatencySlo() != null) {
+        route.getLatencySlo().record(latency, status);
+      }
+      if (route.getLoad() != null) {
+        route.getLoad().record(latency);
+      }
+      statusMetrics.getLatency().update(latency);
       /*
-       * Overall response metrics
-       * 1) jersey.server.response.completed.aggregated_per_source.count (Counter)
-       * 2) jersey.server.response.completed.aggregated_per_shard.count (DeltaCounter)
-       * 3) jersey.server.response.completed.aggregated_per_service.count (DeltaCounter)
-       * 3) jersey.server.response.completed.aggregated_per_cluster.count (DeltaCounter)
-       * 5) jersey.server.response.completed.aggregated_per_application.count (DeltaCounter)
+       * total time spent counter: jersey.server.response.api.v2.alert.summary.GET.200.total_time
        */
-      wfJerseyReporter.incrementCounter(new MetricName("response.completed.aggregated_per_source",
-          overallAggregatedPerSourceMap));
-      if (applicationTags.getShard() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-            ".completed.aggregated_per_shard", overallAggregatedPerShardMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-          ".completed.aggregated_per_service", overallAggregatedPerServiceMap));
-      if (applicationTags.getCluster() != null) {
-        wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-            ".completed.aggregated_per_cluster", overallAggregatedPerClusterMap));
-      }
-      wfJerseyReporter.incrementDeltaCounter(new MetricName("response" +
-          ".completed.aggregated_per_application", overallAggregatedPerApplicationMap));
-
-      StatsContext statsContext = statsContextThreadLocal.get();
-      if (statsContext != null) {
-
-        /* Gauges - update api inflight and total inflight gauges
-         * 1) jersey.server.request.api.v2.alert.summary.GET.inflight
-         * 2) jersey.server.total_requests.inflight
-         */
-        if (statsContext.getApiInflight() != null) {
-          statsContext.getApiInflight().decrementAndGet();
-        }
+      statusMetrics.getTotalTime().inc(latency);
+    }
+    /*
+     * WavefrontHistogram: jersey.server.response.api.v2.alert.summary.GET.200.request_bytes
+     */
+    if (requestBytes != NO_SIZE) {
+      statusMetrics.getRequestBytes().update(requestBytes);
+    }
+  }
 
-        if (statsContext.getTotalInflight() != null) {
-          statsContext.getTotalInflight().decrementAndGet();
+  @Override
+  public void onEvent(ApplicationEvent event) {
+    if (event.getType() == ApplicationEvent.Type.INITIALIZATION_FINISHED) {
+      // Resolve every route once, so requests only need an identity lookup. Their metrics are
+      // resolved when they are first requested.
+      Map<ResourceMethod, Route> table = new IdentityHashMap<>();
+      for (Resource resource : event.getResourceModel().getResources()) {
+        addRoutes(resource, table);
+      }
+      routes = Collections.unmodifiableMap(table);
+    } else if (event.getType() == ApplicationEvent.Type.DESTROY_FINISHED &&
+        responseEvents != null) {
+      // record the pending responses, later ones are recorded on their request thread
+      responseEvents.close();
+    }
+  }
+
+  @Override
+  public RequestEventListener onRequest(RequestEvent requestEvent) {
+    return requestEventListener;
+  }
+
+  private void onRequestEvent(RequestEvent event) {
+    if (event.getType() == RequestEvent.Type.FINISHED) {
+      try {
+        completeRequest(event);
+      } catch (Throwable t) {
+        logger.log(Level.SEVERE, "Exception completing jersey request", t);
+      }
+    } else if (tracer != null && event.getType() == RequestEvent.Type.RESOURCE_METHOD_FINISHED) {
+      // The scope is bound to the thread which activated it, while the response of an async
+      // resource (@Suspended AsyncResponse, CompletionStage) is filtered on another thread.
+      // Close it once the resource method returns so that it does not leak into the next
+      // request served by this thread; the span itself is finished by the response filter.
+      ContainerRequest request = event.getContainerRequest();
+      Object property = request.getProperty(PROPERTY_NAME);
+      if (property instanceof SpanWrapper) {
+        SpanWrapper spanWrapper = (SpanWrapper) property;
+        if (spanWrapper.getScope() != null) {
+          spanWrapper.getScope().close();
+          request.setProperty(PROPERTY_NAME, new SpanWrapper(spanWrapper.getSpan(), null));
         }
+      }
+    }
+  }
 
-        /*
-         * WavefrontHistograms
-         * 1) jersey.server.response.api.v2.alert.summary.GET.200.latency
-         * 2) jersey.server.response.api.v2.alert.summary.GET.200.cpu_ns
-         */
-        long cpuNanos = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() -
-            statsContext.getStartCpuNanos();
-        wfJerseyReporter.updateHistogram(new MetricName(responseMetricKey + ".cpu_ns",
-            completeTagsMap), cpuNanos);
+  /**
+   * Releases the state of a request whose response was not filtered, e.g. because another
+   * response filter failed or the request failed before a response was produced, so that it
+   * does not stay inflight forever.
+   */
+  private void completeRequest(RequestEvent event) {
+    ContainerRequest request = event.getContainerRequest();
+    StatsContext statsContext = (StatsContext) request.getProperty(STATS_CONTEXT_PROPERTY);
+    request.removeProperty(STATS_CONTEXT_PROPERTY);
+    Span pendingSpan = statsContext == null ? null : statsContext.takePendingSpan();
+    if (pendingSpan != null) {
+      // the response entity was not written, see deferSpan
+      pendingSpan.finish();
+    }
+    if (statsContext == null || statsContext.getRoute() == null || !statsContext.complete()) {
+      return;
+    }
+    // released first, so that a request no longer counted inflight no longer holds its slot
+    if (statsContext.getRoute().getLoad() != null) {
+      statsContext.getRoute().getLoad().release();
+    }
+    if (statsContext.getApiInflight() != null) {
+      statsContext.getApiInflight().dec();
+    }
+    if (statsContext.getTotalInflight() != null) {
+      statsContext.getTotalInflight().dec();
+    }
+    Object property = request.getProperty(PROPERTY_NAME);
+    if (tracer != null && property instanceof SpanWrapper) {
+      SpanWrapper spanWrapper = (SpanWrapper) property;
+      if (spanWrapper.getScope() != null) {
+        spanWrapper.getScope().close();
+      }
+      request.removeProperty(PROPERTY_NAME);
+      Span span = spanWrapper.getSpan();
+      if (span != null) {
+        Tags.ERROR.set(span, true);
+        span.finish();
+      }
+    }
+  }
 
-        long apiLatency = System.currentTimeMillis() - statsContext.getStartTime();
-        wfJerseyReporter.updateHistogram(new MetricName(responseMetricKey + ".latency",
-            completeTagsMap), apiLatency);
-        /*
-         * total time spent counter: jersey.server.response.api.v2.alert.summary.GET.200.total_time
-         */
-        wfJerseyReporter.incrementCounter(new MetricName(responseMetricKey + ".total_time",
-            completeTagsMap), apiLatency);
+  private void addRoutes(Resource resource, Map<ResourceMethod, Route> table) {
+    if (resource.isExtended()) {
+      // generated by Jersey, e.g. the WADL resource
+      return;
+    }
+    for (ResourceMethod resourceMethod : resource.getResourceMethods()) {
+      if (resourceMethod.isExtended()) {
+        // generated by Jersey, e.g. OPTIONS methods, resolved if they are actually requested
+        continue;
+      }
+      Route route = route(resource, resourceMethod.getHttpMethod(), resourceMethod);
+      if (route != null) {
+        table.put(resourceMethod, route);
       }
     }
+    for (Resource childResource : resource.getChildResources()) {
+      addRoutes(childResource, table);
+    }
+  }
+
+  /**
+   * @return the metrics the request is reported to, or null if its route is unknown or excluded.
+   */
+  @Nullable
+  private RouteMetrics reportedMetrics(ContainerRequest request) {
+    Route route = route(request);
+    Route reported = route == null ? null : reportedRoute(route);
+    return reported == null ? null : reported.getMetrics();
   }
 
-  private Pair<String, String> getClassAndMethodName(ExtendedUriInfo uriInfo) {
+  @Nullable
+  private Route route(ContainerRequest request) {
+    ExtendedUriInfo uriInfo = request.getUriInfo();
+    ResourceMethod resourceMethod = uriInfo.getMatchedResourceMethod();
+    if (resourceMethod != null) {
+      Route route = routes.get(resourceMethod);
+      if (route != null && route.getHttpMethod().equals(request.getMethod())) {
+        return route;
+      }
+    }
+    // Resources which are not part of the application model at startup (e.g. resources returned
+    // by sub-resource locators) or requests served by a method of another HTTP method (e.g. HEAD).
+    // Jersey reuses their model unless its locator cache overflows, in which case the route is
+    // still shared through its metric name.
+    Resource matchedResource = uriInfo.getMatchedModelResource();
+    if (matchedResource == null) {
+      return null;
+    }
+    RouteKey routeKey = new RouteKey(matchedResource, resourceMethod, request.getMethod());
+    Optional<Route> route = requestPathRoutes.getIfPresent(routeKey);
+    if (route == null) {
+      route = Optional.ofNullable(route(matchedResource, request.getMethod(), resourceMethod));
+      requestPathRoutes.put(routeKey, route);
+    }
+    return route.orElse(null);
+  }
+
+  /**
+   * @return the route of the given resource and HTTP method, shared by every resource model of
+   * the same route, or null if the route has no metric friendly name.
+   */
+  @Nullable
+  private Route route(Resource resource, String httpMethod,
+                      @Nullable ResourceMethod resourceMethod) {
+    routeNameDerivations.increment();
+    Optional<Pair<String, String>> pairOptional =
+        MetricNameUtils.metricNameAndPath(resource, httpMethod);
+    if (!pairOptional.isPresent()) {
+      return null;
+    }
+    String metricName = pairOptional.get()._1;
+    Route route = routesByName.get(metricName);
+    if (route == null) {
+      route = routesByName.computeIfAbsent(metricName, key -> newRoute(key,
+          pairOptional.get()._2, httpMethod, resourceMethod));
+    }
+    return route;
+  }
+
+  private Route newRoute(String metricName, String matchingPath, String httpMethod,
+                         @Nullable ResourceMethod resourceMethod) {
+    Boolean excluded = routeExclusions.get(metricName);
+    if (excluded == null) {
+      excluded = getAnnotation(resourceMethod, WavefrontIgnore.class) != null;
+    }
+    return new Route(metricName, matchingPath, httpMethod, resourceMethod, excluded);
+  }
+
+  /**
+   * @return the route the requests of the given route are reported under, i.e. the route itself
+   * or its overflow route, or null if that route is excluded.
+   */
+  @Nullable
+  private Route reportedRoute(Route route) {
+    if (route.isExcluded()) {
+      return null;
+    }
+    Route reported = route.getReportedRoute();
+    if (reported == null) {
+      reported = claimRoute(route);
+    }
+    if (reported != route) {
+      if (reported.isExcluded()) {
+        return null;
+      }
+      overflowedRoutes.inc();
+    }
+    return reported;
+  }
+
+  /**
+   * Resolves the route the requests of a route are reported under once it is first reported, so
+   * that only routes which are requested while included count against
+   * {@link Builder#maxRoutes(int)}.
+   */
+  private Route claimRoute(Route route) {
+    // once per route, concurrent first requests wait for the metrics of the first one
+    synchronized (route) {
+      Route reported = route.getReportedRoute();
+      if (reported != null) {
+        return reported;
+      }
+      // the size check races with concurrent claims, so the cap may be exceeded marginally
+      String metricName = route.getMetricName();
+      if (routeNames.contains(metricName) || routeNames.size() < maxRoutes) {
+        routeNames.add(metricName);
+        route.setMetrics(newRouteMetrics(route));
+        reported = route;
+      } else {
+        reported = overflowRoute(route.getHttpMethod());
+      }
+      route.setReportedRoute(reported);
+      return reported;
+    }
+  }
+
+  private RouteMetrics newRouteMetrics(Route route) {
+    String metricName = route.getMetricName();
+    Pair<String, String> pair = getClassAndMethodName(route.getResourceMethod());
+    LatencySloTracker.Config latencySloConfig = latencySlos.get(metricName);
+    if (latencySloConfig == null) {
+      latencySloConfig = getLatencySlo(route.getResourceMethod());
+    }
+    LatencySloTracker.Config config = latencySloConfig;
+    // shared by the routes of the same metric name, like their registry metrics
+    LatencySloTracker latencySlo = config == null ? null : latencySloTrackers.computeIfAbsent(
+        metricName, key -> newLatencySloTracker(key, pair, config));
+    RouteMetrics routeMetrics = new RouteMetrics(metricName, route.getMatchingPath(),
+        route.getHttpMethod(), pair._1, pair._2, applicationTags, handleResolver,
+        this::getGaugeValue, overallCompletedCounters, overallErrorCounters, latencySlo,
+        latencyExemplars, aggregationLevels, metricFamilies, this::histogramStatusKey,
+        measureEntityWrite, measurePayloadSize, loadShedding == null ? null : routeLoads.computeIfAbsent(metricName,
+            key -> loadShedding.newRouteLoad(latencyUnit)));
+    if (latencyExemplars > 0) {
+      exemplarRoutes.put(metricName, routeMetrics);
+    }
+    return routeMetrics;
+  }
+
+  private LatencySloTracker newLatencySloTracker(String metricName,
+                                                 Pair<String, String> classAndMethodName,
+                                                 LatencySloTracker.Config latencySlo) {
+    Map<String, String> tags = RouteMetrics.completeTags(applicationTags, classAndMethodName._1,
+        classAndMethodName._2);
+    /*
+     * Latency objective metrics
+     * 1) jersey.server.response.api.v2.alert.summary.GET.slo.good (DeltaCounter)
+     * 2) jersey.server.response.api.v2.alert.summary.GET.slo.bad (DeltaCounter)
+     */
+    return new LatencySloTracker(latencySlo.threshold(latencyUnit), latencySlo.getObjective(),
+        handleResolver.deltaCounter(new MetricName(RESPONSE_PREFIX + metricName + ".slo.good",
+            tags)),
+        handleResolver.deltaCounter(new MetricName(RESPONSE_PREFIX + metricName + ".slo.bad",
+            tags)));
+  }
+
+  @Nullable
+  private LatencySloTracker.Config getLatencySlo(@Nullable ResourceMethod resourceMethod) {
+    LatencySlo latencySlo = getAnnotation(resourceMethod, LatencySlo.class);
+    return latencySlo == null ? null : LatencySloTracker.Config.of(latencySlo);
+  }
+
+  /**
+   * @return the annotation of the resource method, else of its resource class, or null.
+   */
+  @Nullable
+  private static <A extends Annotation> A getAnnotation(@Nullable ResourceMethod resourceMethod,
+                                                        Class<A> annotationClass) {
+    if (resourceMethod == null) {
+      return null;
+    }
+    Invocable invocable = resourceMethod.getInvocable();
+    A annotation = null;
+    if (invocable.getDefinitionMethod() != null) {
+      annotation = invocable.getDefinitionMethod().getAnnotation(annotationClass);
+    }
+    if (annotation == null && invocable.getHandlingMethod() != null) {
+      annotation = invocable.getHandlingMethod().getAnnotation(annotationClass);
+    }
+    if (annotation == null && invocable.getHandler().getHandlerClass() != null) {
+      annotation = invocable.getHandler().getHandlerClass().getAnnotation(annotationClass);
+    }
+    return annotation;
+  }
+
+  private Route overflowRoute(String httpMethod) {
+    return overflowRoutes.computeIfAbsent(httpMethod, key -> {
+      String metricName = OVERFLOW_ROUTE + "." + key;
+      Route route = new Route(metricName, OVERFLOW_ROUTE, key, null,
+          Boolean.TRUE.equals(routeExclusions.get(metricName)));
+      route.setMetrics(new RouteMetrics(metricName, OVERFLOW_ROUTE, key, "unknown", "unknown",
+          applicationTags, handleResolver, this::getGaugeValue, overallCompletedCounters,
+          overallErrorCounters, null, 0, aggregationLevels, metricFamilies,
+          this::histogramStatusKey, measureEntityWrite, measurePayloadSize, null));
+      route.setReportedRoute(route);
+      return route;
+    });
+  }
+
+  /**
+   * @return key of the given status code in the histogram names, see
+   * {@link Builder#histogramStatusClasses(boolean)}.
+   */
+  private String histogramStatusKey(int status) {
+    String group = histogramStatusGroups.get(status);
+    if (group != null) {
+      return group;
+    }
+    return histogramStatusClasses ? status / 100 + "xx" : String.valueOf(status);
+  }
+
+  private Pair<String, String> getClassAndMethodName(@Nullable ResourceMethod resourceMethod) {
     String className = "unknown";
     String methodName = "unknown";
 
-    if (uriInfo != null) {
-      Class clazz = ((RoutingContext) uriInfo).getResourceClass();
-      if (clazz != null) {
+    if (resourceMethod != null) {
+      Invocable invocable = resourceMethod.getInvocable();
+      Class<?> clazz = invocable.getHandler().getHandlerClass();
+      if (clazz != null && clazz.getCanonicalName() != null) {
         className = clazz.getCanonicalName();
       }
-      Method method = ((RoutingContext) uriInfo).getResourceMethod();
+      Method method = invocable.getHandlingMethod();
       if (method != null) {
         methodName = method.getName();
       }
@@ -456,41 +1404,42 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     return Pair.of(className, methodName);
   }
 
-  private AtomicInteger getGaugeValue(MetricName metricName) {
-    return gauges.computeIfAbsent(metricName, key -> {
-      final AtomicInteger toReturn = new AtomicInteger();
-      wfJerseyReporter.registerGauge(key, toReturn);
-      return toReturn;
-    });
+  private boolean sampleCpuTime() {
+    if (cpuTimeSampleRate == 0 || VirtualThreads.isCurrentThreadVirtual()) {
+      // the CPU time of a virtual thread is not available, it moves between carrier threads
+      return false;
+    }
+    return cpuTimeSampleRate == 1 ||
+        ThreadLocalRandom.current().nextInt(cpuTimeSampleRate) == 0;
   }
 
-  private Map<String, String> getCompleteTagsMap(String finalClassName, String finalMethodName,
-                                                 String spanOperationName) {
-    return new HashMap<String, String>() {{
-      put(CLUSTER_TAG_KEY, applicationTags.getCluster() == null ? NULL_TAG_VAL :
-          applicationTags.getCluster());
-      put(SERVICE_TAG_KEY, applicationTags.getService());
-      put(SHARD_TAG_KEY,
-          applicationTags.getShard() == null ? NULL_TAG_VAL : applicationTags.getShard());
-      put("jersey.resource.class", finalClassName);
-      put("jersey.resource.method", finalMethodName);
-      put("operationName", spanOperationName);
-    }};
+  private GaugeHandle getGaugeValue(MetricName metricName) {
+    return gauges.computeIfAbsent(metricName, handleResolver::gauge);
   }
 
-  private String getSpanOperationName(String finalClassName, String finalMethodName) {
-    return finalClassName.substring(finalClassName.lastIndexOf('.') + 1) + "." + finalMethodName;
+  private GaugeHandle getTotalInflight() {
+    GaugeHandle toReturn = totalInflight;
+    if (toReturn == null) {
+      toReturn = !metricFamilies.contains(MetricFamily.INFLIGHT) ? RouteMetrics.NO_OP_HANDLE :
+          getGaugeValue(new MetricName("total_requests.inflight", overallAggregatedPerSourceMap));
+      totalInflight = toReturn;
+    }
+    return toReturn;
   }
 
   private SpanContext parentSpanContext(ContainerRequestContext requestContext) {
     Span activeSpan = tracer.activeSpan();
     if (activeSpan != null) {
       return activeSpan.context();
-    } else {
+    } else if (extractAllHeaders) {
       return tracer.extract(
               Format.Builtin.HTTP_HEADERS,
               new ServerHeadersExtractTextMap(requestContext.getHeaders())
       );
+    } else {
+      return tracer.extract(Format.Builtin.HTTP_HEADERS, new PropagationHeadersExtractTextMap(
+          requestContext.getHeaders(), PropagationHeadersExtractTextMap.WAVEFRONT_HEADER_NAMES,
+          PropagationHeadersExtractTextMap.WAVEFRONT_HEADER_PREFIXES));
     }
   }
 
@@ -518,7 +1467,10 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
   }
 
   private boolean isErrorStatusCode(ContainerResponseContext containerResponseContext) {
-    int statusCode = containerResponseContext.getStatus();
+    return isErrorStatusCode(containerResponseContext.getStatus());
+  }
+
+  private static boolean isErrorStatusCode(int statusCode) {
     return statusCode >= 400 && statusCode <= 599;
   }
 
@@ -546,6 +1498,109 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     return this.tracer;
   }
 
+  /**
+   * Returns the rate at which a route currently consumes the error budget of its latency
+   * objective: the ratio of bad responses within the window divided by the allowed ratio. A burn
+   * rate of 1 consumes the budget exactly over the objective's period.
+   *
+   * @param route  metric name of the route, e.g. {@code api.v2.alert.summary.GET}.
+   * @param window window to compute the burn rate over, at most an hour.
+   * @param unit   unit of the window.
+   * @return the burn rate, 0 without responses, or {@link Double#NaN} if the route has no
+   * latency objective or was not requested yet.
+   */
+  public double getSloBurnRate(String route, long window, TimeUnit unit) {
+    LatencySloTracker latencySlo = latencySloTrackers.get(route);
+    return latencySlo == null ? Double.NaN : latencySlo.burnRate(unit.toNanos(window));
+  }
+
+  /**
+   * Returns the slowest traced requests of a route in the previous and current minute, see
+   * {@link Builder#latencyExemplars(int)}.
+   *
+   * @param route metric name of the route, e.g. {@code api.v2.alert.summary.GET}.
+   * @return the exemplars of the route, slowest first, or an empty list if exemplars are not
+   * kept or the route was not requested yet.
+   */
+  public List<LatencyExemplar> getLatencyExemplars(String route) {
+    RouteMetrics routeMetrics = exemplarRoutes.get(route);
+    return routeMetrics == null ? Collections.emptyList() : routeMetrics.getLatencyExemplars();
+  }
+
+  /**
+   * Enables or disables the filter without restarting the application. While disabled, requests
+   * are neither measured nor traced; requests already inflight complete normally.
+   *
+   * @param enabled true to enable the filter, the default.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Excludes a route from the metrics and traces, or includes it again, overriding its
+   * {@link WavefrontIgnore} annotation. Only requests which start after this call are affected:
+   * requests of the route already inflight are measured and traced, or not, as decided when they
+   * started. A route reported under an overflow route, see {@link Builder#maxRoutes(int)}, is
+   * excluded by its own metric name, and every such route by the name of the overflow route,
+   * e.g. {@code other.GET}.
+   *
+   * @param route    metric name of the route, e.g. {@code api.v2.alert.summary.GET}.
+   * @param excluded true to exclude the route, false to include it.
+   */
+  public void setRouteExcluded(String route, boolean excluded) {
+    Preconditions.checkNotNull(route, "Invalid route");
+    routeExclusions.put(route, excluded);
+    // a route resolved concurrently may have missed the override, it is applied again below
+    // to the routes resolved so far
+    for (Route resolved : resolvedRoutes(route)) {
+      resolved.setExcluded(excluded);
+    }
+  }
+
+  /**
+   * @param route metric name of the route, e.g. {@code api.v2.alert.summary.GET}.
+   * @return true if the route is excluded, by {@link WavefrontIgnore} or at runtime. Routes which
+   * were not requested yet are only known to be excluded at runtime.
+   */
+  public boolean isRouteExcluded(String route) {
+    Boolean excluded = routeExclusions.get(route);
+    if (excluded != null) {
+      return excluded;
+    }
+    List<Route> resolved = resolvedRoutes(route);
+    return !resolved.isEmpty() && resolved.get(0).isExcluded();
+  }
+
+  /**
+   * @return the number of times the metric name of a route was derived from its resource model,
+   * once per route of the application model and per route first resolved on the request path.
+   */
+  long getRouteNameDerivations() {
+    return routeNameDerivations.sum();
+  }
+
+  /**
+   * @return the routes resolved so far with the given metric name, including overflow routes.
+   */
+  private List<Route> resolvedRoutes(String metricName) {
+    List<Route> resolved = new ArrayList<>();
+    Route own = routesByName.get(metricName);
+    if (own != null) {
+      resolved.add(own);
+    }
+    for (Route overflow : overflowRoutes.values()) {
+      if (overflow.getMetricName().equals(metricName)) {
+        resolved.add(overflow);
+      }
+    }
+    return resolved;
+  }
+
   public static final class MultivaluedMapFlatIterator<K, V> implements Iterator<Map.Entry<K, V>> {
     private final Iterator<Map.Entry<K, List<V>>> mapIterator;
     private Map.Entry<K, List<V>> mapEntry;
@@ -575,36 +1630,245 @@ public class WavefrontJerseyFilter implements ContainerRequestFilter, ContainerR
     }
   }
 
-  private class StatsContext {
-    private final long startTime;
+  /**
+   * Identifies a route resolved on the request path. Model resources and methods are compared by
+   * identity, as Jersey reuses them for every request matching the route.
+   */
+  private static final class RouteKey {
+    private final Resource resource;
+    @Nullable
+    private final ResourceMethod resourceMethod;
+    private final String httpMethod;
+
+    RouteKey(Resource resource, @Nullable ResourceMethod resourceMethod, String httpMethod) {
+      this.resource = resource;
+      this.resourceMethod = resourceMethod;
+      this.httpMethod = httpMethod;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RouteKey)) {
+        return false;
+      }
+      RouteKey routeKey = (RouteKey) o;
+      return resource == routeKey.resource && resourceMethod == routeKey.resourceMethod &&
+          httpMethod.equals(routeKey.httpMethod);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * System.identityHashCode(resource) +
+          System.identityHashCode(resourceMethod)) + httpMethod.hashCode();
+    }
+  }
+
+  /**
+   * Route (API path and HTTP method) of the application, resolved before its metrics so that
+   * routes which are never requested do not count against {@link Builder#maxRoutes(int)}.
+   */
+  private static final class Route {
+    private final String metricName;
+    private final String matchingPath;
+    private final String httpMethod;
+    @Nullable
+    private final ResourceMethod resourceMethod;
+    // read on every request, so that excluding a route at runtime is a single branch
+    private volatile boolean excluded;
+    // this route or its overflow route, resolved when the route is first reported
+    @Nullable
+    private volatile Route reportedRoute;
+    // set before the route is reported under its own name
+    @Nullable
+    private volatile RouteMetrics metrics;
+
+    Route(String metricName, String matchingPath, String httpMethod,
+          @Nullable ResourceMethod resourceMethod, boolean excluded) {
+      this.metricName = metricName;
+      this.matchingPath = matchingPath;
+      this.httpMethod = httpMethod;
+      this.resourceMethod = resourceMethod;
+      this.excluded = excluded;
+    }
+
+    String getMetricName() {
+      return metricName;
+    }
+
+    String getMatchingPath() {
+      return matchingPath;
+    }
+
+    String getHttpMethod() {
+      return httpMethod;
+    }
+
+    @Nullable
+    ResourceMethod getResourceMethod() {
+      return resourceMethod;
+    }
+
+    boolean isExcluded() {
+      return excluded;
+    }
+
+    void setExcluded(boolean excluded) {
+      this.excluded = excluded;
+    }
+
+    @Nullable
+    Route getReportedRoute() {
+      return reportedRoute;
+    }
+
+    void setReportedRoute(Route reportedRoute) {
+      this.reportedRoute = reportedRoute;
+    }
+
+    @Nullable
+    RouteMetrics getMetrics() {
+      return metrics;
+    }
+
+    void setMetrics(RouteMetrics metrics) {
+      this.metrics = metrics;
+    }
+  }
+
+  private static class StatsContext {
+    private static final AtomicIntegerFieldUpdater<StatsContext> COMPLETED =
+        AtomicIntegerFieldUpdater.newUpdater(StatsContext.class, "completed");
+    private final long startNanos;
     private final long startCpuNanos;
+    private final long requestLength;
+    private final long requestThreadId;
+    @Nullable
+    private final RouteMetrics route;
     @Nullable
-    private final AtomicInteger apiInflight;
+    private final GaugeHandle apiInflight;
     @Nullable
-    private final AtomicInteger totalInflight;
+    private final GaugeHandle totalInflight;
+    private final boolean traceErrors;
+    // set by the response filter, taken by the writer interceptor of the same request
+    @Nullable
+    private volatile RouteMetrics.StatusMetrics pendingWrite;
+    // set by the response filter if the span ends once the entity has been written
+    @Nullable
+    private volatile Span pendingSpan;
+    // 1 once the request left the inflight gauges, see complete()
+    private volatile int completed;
 
-    StatsContext(long startTime, long startCpuNanos, AtomicInteger apiInflight,
-                 AtomicInteger totalInflight) {
-      this.startTime = startTime;
+    // request entity counted as it is read, if it has no content length
+    @Nullable
+    private volatile CountingInputStream requestEntity;
+
+    StatsContext(long startNanos, long startCpuNanos, long requestLength, RouteMetrics route,
+                 GaugeHandle apiInflight, GaugeHandle totalInflight, boolean traceErrors) {
+      this.startNanos = startNanos;
       this.startCpuNanos = startCpuNanos;
+      this.requestLength = requestLength;
+      this.requestThreadId = Thread.currentThread().getId();
+      this.route = route;
       this.apiInflight = apiInflight;
       this.totalInflight = totalInflight;
+      this.traceErrors = traceErrors;
     }
 
-    public long getStartTime() {
-      return startTime;
+    public long getStartNanos() {
+      return startNanos;
     }
 
     public long getStartCpuNanos() {
       return startCpuNanos;
     }
 
-    public AtomicInteger getApiInflight() {
+    /**
+     * @return true if called on the thread which filtered the request.
+     */
+    public boolean isRequestThread() {
+      return Thread.currentThread().getId() == requestThreadId;
+    }
+
+    public RouteMetrics getRoute() {
+      return route;
+    }
+
+    public GaugeHandle getApiInflight() {
       return apiInflight;
     }
 
-    public AtomicInteger getTotalInflight() {
+    public GaugeHandle getTotalInflight() {
       return totalInflight;
     }
+
+    /**
+     * @return true if the request was not traced but should be if its response is an error.
+     */
+    public boolean isTraceErrors() {
+      return traceErrors;
+    }
+
+    /**
+     * @return content length of the request, or {@link #NO_SIZE} if unknown or not measured.
+     */
+    public long getRequestLength() {
+      return requestLength;
+    }
+
+    public void setRequestEntity(CountingInputStream requestEntity) {
+      this.requestEntity = requestEntity;
+    }
+
+    /**
+     * @return size of the request entity, or {@link #NO_SIZE} if not measured.
+     */
+    public long getRequestBytes() {
+      if (requestLength != NO_SIZE) {
+        return requestLength;
+      }
+      CountingInputStream entity = requestEntity;
+      return entity == null ? NO_SIZE : entity.getCount();
+    }
+
+    /**
+     * Marks the request as completed, either by the response filter or when the request finished
+     * without its response being filtered.
+     *
+     * @return true if the request was not completed before.
+     */
+    public boolean complete() {
+      return COMPLETED.compareAndSet(this, 0, 1);
+    }
+
+    public void setPendingWrite(RouteMetrics.StatusMetrics pendingWrite) {
+      this.pendingWrite = pendingWrite;
+    }
+
+    public void setPendingSpan(Span pendingSpan) {
+      this.pendingSpan = pendingSpan;
+    }
+
+    /**
+     * @return span to finish once the entity has been written, or null if already finished.
+     */
+    @Nullable
+    public Span takePendingSpan() {
+      Span toReturn = pendingSpan;
+      pendingSpan = null;
+      return toReturn;
+    }
+
+    /**
+     * @return metrics to record the entity write to, or null if it is not to be measured.
+     */
+    @Nullable
+    public RouteMetrics.StatusMetrics takePendingWrite() {
+      RouteMetrics.StatusMetrics toReturn = pendingWrite;
+      pendingWrite = null;
+      return toReturn;
+    }
   }
 }
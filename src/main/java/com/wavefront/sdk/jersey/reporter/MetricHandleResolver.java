@@ -0,0 +1,121 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves metric names to handles which can be updated repeatedly without looking the metric up
+ * again. Handles are resolved once (e.g. per route) and then used on the request path.
+ */
+public interface MetricHandleResolver {
+
+  /**
+   * Handle to a counter or a delta counter.
+   */
+  interface CounterHandle {
+    void inc();
+
+    void inc(long n);
+  }
+
+  /**
+   * Handle to a Wavefront histogram.
+   */
+  interface HistogramHandle {
+    void update(long value);
+  }
+
+  /**
+   * Handle to a gauge tracking a value that goes up and down, e.g. inflight requests.
+   */
+  interface GaugeHandle {
+    void inc();
+
+    void dec();
+  }
+
+  CounterHandle counter(MetricName metricName);
+
+  CounterHandle deltaCounter(MetricName metricName);
+
+  HistogramHandle histogram(MetricName metricName);
+
+  /**
+   * Registers a gauge with the given name. Must be called at most once per name.
+   *
+   * @param metricName name of the gauge.
+   * @return handle updating the registered gauge.
+   */
+  GaugeHandle gauge(MetricName metricName);
+
+  /**
+   * Returns a resolver for the given reporter. Reporters that do not resolve handles themselves
+   * get handles which delegate every update to the name based {@link SdkReporter} API.
+   *
+   * @param sdkReporter reporter to which the metrics are reported.
+   * @return a resolver backed by the given reporter.
+   */
+  static MetricHandleResolver of(SdkReporter sdkReporter) {
+    if (sdkReporter instanceof MetricHandleResolver) {
+      return (MetricHandleResolver) sdkReporter;
+    }
+    return new MetricHandleResolver() {
+      @Override
+      public CounterHandle counter(MetricName metricName) {
+        return new CounterHandle() {
+          @Override
+          public void inc() {
+            sdkReporter.incrementCounter(metricName);
+          }
+
+          @Override
+          public void inc(long n) {
+            sdkReporter.incrementCounter(metricName, n);
+          }
+        };
+      }
+
+      @Override
+      public CounterHandle deltaCounter(MetricName metricName) {
+        return new CounterHandle() {
+          @Override
+          public void inc() {
+            sdkReporter.incrementDeltaCounter(metricName);
+          }
+
+          @Override
+          public void inc(long n) {
+            // SdkReporter has no bulk increment for delta counters
+            for (long i = 0; i < n; i++) {
+              sdkReporter.incrementDeltaCounter(metricName);
+            }
+          }
+        };
+      }
+
+      @Override
+      public HistogramHandle histogram(MetricName metricName) {
+        return value -> sdkReporter.updateHistogram(metricName, value);
+      }
+
+      @Override
+      public GaugeHandle gauge(MetricName metricName) {
+        AtomicInteger value = new AtomicInteger();
+        sdkReporter.registerGauge(metricName, value);
+        return new GaugeHandle() {
+          @Override
+          public void inc() {
+            value.incrementAndGet();
+          }
+
+          @Override
+          public void dec() {
+            value.decrementAndGet();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,236 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.HistogramHandle;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accumulates counter increments and histogram samples outside of the metric registry and merges
+ * them into the registry from a background thread, so that request threads neither touch the
+ * registry metrics nor pay for histogram (t-digest) updates.
+ *
+ * <p>Histogram samples are merged when they are flushed rather than when they are recorded, so a
+ * sample recorded during the last flush interval of a minute is reported in the distribution of
+ * the next minute. A sample whose writer is still storing it while the buffer is flushed is
+ * merged by the next flush instead of being waited for.
+ */
+final class PreAggregator {
+  private static final Logger logger = Logger.getLogger(PreAggregator.class.getName());
+  private static final int MIN_BUFFER_CAPACITY = 64;
+  private static final int MAX_BUFFER_CAPACITY = 1 << 16;
+
+  private final long flushIntervalMillis;
+  private final ConcurrentMap<MetricName, Flushable> handles = new ConcurrentHashMap<>();
+  private ScheduledExecutorService executor;
+
+  PreAggregator(long flushIntervalMillis) {
+    this.flushIntervalMillis = flushIntervalMillis;
+  }
+
+  CounterHandle counter(MetricName metricName,
+                        Function<MetricName, CounterHandle> registryCounter) {
+    return (CounterHandle) handles.computeIfAbsent(metricName,
+        key -> new AggregatingCounter(registryCounter.apply(key)));
+  }
+
+  HistogramHandle histogram(MetricName metricName,
+                            Function<MetricName, HistogramHandle> registryHistogram) {
+    return (HistogramHandle) handles.computeIfAbsent(metricName,
+        key -> new AggregatingHistogram(registryHistogram.apply(key)));
+  }
+
+  synchronized void start() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().
+          setDaemon(true).setNameFormat("wavefront-jersey-pre-aggregation").build());
+      executor.scheduleAtFixedRate(this::flush, flushIntervalMillis, flushIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  synchronized void stop() {
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+    flush();
+  }
+
+  /**
+   * Merges everything accumulated so far into the registry. Flushes never run concurrently.
+   */
+  synchronized void flush() {
+    for (Flushable handle : handles.values()) {
+      try {
+        handle.flush();
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Unable to merge pre-aggregated metric", t);
+      }
+    }
+  }
+
+  private interface Flushable {
+    void flush();
+  }
+
+  /**
+   * Counter (or delta counter) whose increments are striped in a {@link LongAdder} and added to
+   * the registry counter on flush.
+   */
+  private static final class AggregatingCounter implements CounterHandle, Flushable {
+    private final CounterHandle registryCounter;
+    private final LongAdder pending = new LongAdder();
+    // only accessed by the flushing thread
+    private long flushed;
+
+    AggregatingCounter(CounterHandle registryCounter) {
+      this.registryCounter = registryCounter;
+    }
+
+    @Override
+    public void inc() {
+      pending.increment();
+    }
+
+    @Override
+    public void inc(long n) {
+      pending.add(n);
+    }
+
+    @Override
+    public void flush() {
+      // the adder is never reset, so increments racing with the flush are picked up next time
+      long total = pending.sum();
+      long delta = total - flushed;
+      if (delta != 0) {
+        registryCounter.inc(delta);
+        flushed = total;
+      }
+    }
+  }
+
+  /**
+   * Histogram whose samples are appended to a lock-free buffer and replayed into the registry
+   * histogram on flush. Samples that do not fit into the buffer go to the registry directly.
+   */
+  private static final class AggregatingHistogram implements HistogramHandle, Flushable {
+    private final HistogramHandle registryHistogram;
+    private final AtomicReference<SampleBuffer> buffer =
+        new AtomicReference<>(new SampleBuffer(MIN_BUFFER_CAPACITY));
+    // swapped out buffer with samples still being written, only accessed by the flushing thread
+    private SampleBuffer retired;
+
+    AggregatingHistogram(HistogramHandle registryHistogram) {
+      this.registryHistogram = registryHistogram;
+    }
+
+    @Override
+    public void update(long value) {
+      SampleBuffer current = buffer.get();
+      if (current.offer(value)) {
+        return;
+      }
+      // the buffer is either full or was just swapped out by a flush
+      SampleBuffer next = buffer.get();
+      if (next == current || !next.offer(value)) {
+        registryHistogram.update(value);
+      }
+    }
+
+    @Override
+    public void flush() {
+      if (retired != null && retired.drainTo(registryHistogram)) {
+        retired = null;
+      }
+      SampleBuffer current = buffer.get();
+      if (current.isEmpty() || retired != null) {
+        // keep a single buffer in flight, the current one is swapped out once the retired one
+        // has been drained
+        return;
+      }
+      // size the next buffer after the traffic seen during the last interval
+      int capacity = Math.max(MIN_BUFFER_CAPACITY,
+          Math.min(MAX_BUFFER_CAPACITY, Integer.highestOneBit(current.reserved() * 2)));
+      buffer.set(new SampleBuffer(capacity));
+      if (!current.drainTo(registryHistogram)) {
+        retired = current;
+      }
+    }
+  }
+
+  /**
+   * Fixed size buffer of samples written by many threads and drained by the flushing thread.
+   */
+  private static final class SampleBuffer {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private final AtomicLongArray samples;
+    private final AtomicInteger reserved = new AtomicInteger();
+    // only accessed by the flushing thread, -1 until the buffer is closed
+    private int closed = -1;
+    private int drained;
+
+    SampleBuffer(int capacity) {
+      samples = new AtomicLongArray(capacity);
+      for (int i = 0; i < capacity; i++) {
+        samples.lazySet(i, EMPTY);
+      }
+    }
+
+    boolean offer(long value) {
+      if (value == EMPTY) {
+        return false;
+      }
+      int index = reserved.getAndIncrement();
+      if (index < 0 || index >= samples.length()) {
+        return false;
+      }
+      samples.lazySet(index, value);
+      return true;
+    }
+
+    boolean isEmpty() {
+      return reserved.get() == 0;
+    }
+
+    int reserved() {
+      return Math.max(0, Math.min(reserved.get(), samples.length()));
+    }
+
+    /**
+     * Closes the buffer and replays its samples into the histogram, stopping at the first slot
+     * which has been reserved but not written yet.
+     *
+     * @return whether every sample has been drained, otherwise the drain is resumed later.
+     */
+    boolean drainTo(HistogramHandle histogram) {
+      if (closed < 0) {
+        // closing the buffer makes every later offer fail, so all reserved slots get written
+        closed = Math.min(reserved.getAndSet(samples.length()), samples.length());
+      }
+      for (; drained < closed; drained++) {
+        long value = samples.get(drained);
+        if (value == EMPTY) {
+          // the writer has reserved the slot but not written it yet
+          return false;
+        }
+        histogram.update(value);
+      }
+      return true;
+    }
+  }
+}
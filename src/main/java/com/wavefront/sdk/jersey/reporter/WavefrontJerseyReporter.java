@@ -3,21 +3,38 @@ package com.wavefront.sdk.jersey.reporter;
 import com.google.common.base.Preconditions;
 
 import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal.reporter.WavefrontHistogram;
 import com.wavefront.internal.reporter.WavefrontInternalReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Counter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.DeltaCounter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Gauge;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Metric;
 import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.Snapshot;
 import com.wavefront.sdk.common.Utils;
 import com.wavefront.sdk.common.WavefrontSender;
 import com.wavefront.sdk.common.application.ApplicationTags;
 import com.wavefront.sdk.common.application.HeartbeaterService;
 import com.wavefront.sdk.entities.metrics.WavefrontMetricSender;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -32,12 +49,16 @@ import static com.wavefront.sdk.jersey.Constants.JERSEY_SERVER_COMPONENT;
  *
  * @author Sushant Dewan (sushant@wavefront.com).
  */
-public class WavefrontJerseyReporter implements SdkReporter {
+public class WavefrontJerseyReporter implements SdkReporter, MetricHandleResolver {
 
   private final WavefrontInternalReporter wfReporter;
   private final WavefrontInternalReporter sdkMetricsReporter;
   private final int reportingIntervalSeconds;
   private final HeartbeaterService heartbeaterService;
+  @Nullable
+  private final PreAggregator preAggregator;
+  // metrics registered through this reporter, for snapshots
+  private final ConcurrentMap<MetricName, Metric> metrics = new ConcurrentHashMap<>();
 
   @Deprecated
   private WavefrontJerseyReporter(WavefrontInternalReporter wfReporter,
@@ -46,7 +67,7 @@ public class WavefrontJerseyReporter implements SdkReporter {
                                   ApplicationTags applicationTags,
                                   String source) {
     this(wfReporter, reportingIntervalSeconds, wavefrontMetricSender, applicationTags, source,
-        null);
+        null, null);
   }
 
   private WavefrontJerseyReporter(WavefrontInternalReporter wfReporter,
@@ -54,49 +75,267 @@ public class WavefrontJerseyReporter implements SdkReporter {
                                   WavefrontMetricSender wavefrontMetricSender,
                                   ApplicationTags applicationTags,
                                   String source,
-                                  WavefrontInternalReporter sdkMetricsReporter) {
+                                  WavefrontInternalReporter sdkMetricsReporter,
+                                  @Nullable PreAggregator preAggregator) {
     Preconditions.checkNotNull(wfReporter, "Invalid wfReporter");
     Preconditions.checkNotNull(wavefrontMetricSender, "Invalid wavefrontSender");
     Preconditions.checkNotNull(applicationTags, "Invalid ApplicationTags");
     this.wfReporter = wfReporter;
     this.reportingIntervalSeconds = reportingIntervalSeconds;
     this.sdkMetricsReporter = sdkMetricsReporter;
+    this.preAggregator = preAggregator;
     heartbeaterService = new HeartbeaterService(wavefrontMetricSender, applicationTags,
         Collections.singletonList(JERSEY_SERVER_COMPONENT), source);
   }
 
   @Override
   public void incrementCounter(MetricName metricName) {
-    wfReporter.newCounter(metricName).inc();
+    newCounter(metricName).inc();
   }
 
   @Override
   public void incrementCounter(MetricName metricName, long n) {
-    wfReporter.newCounter(metricName).inc(n);
+    newCounter(metricName).inc(n);
   }
 
   @Override
   public void incrementDeltaCounter(MetricName metricName) {
-    wfReporter.newDeltaCounter(metricName).inc();
+    newDeltaCounter(metricName).inc();
   }
 
   @Override
   public void registerGauge(MetricName metricName, AtomicInteger value) {
-    wfReporter.newGauge(metricName, () -> (() -> (double) value.get()));
+    track(metricName, wfReporter.newGauge(metricName, () -> (() -> (double) value.get())));
   }
 
   @Override
   public void updateHistogram(MetricName metricName, long latencyMillis) {
-    wfReporter.newWavefrontHistogram(metricName).update(latencyMillis);
+    newHistogram(metricName).update(latencyMillis);
+  }
+
+  @Override
+  public CounterHandle counter(MetricName metricName) {
+    if (preAggregator != null) {
+      return preAggregator.counter(metricName, this::registryCounter);
+    }
+    return registryCounter(metricName);
+  }
+
+  @Override
+  public CounterHandle deltaCounter(MetricName metricName) {
+    if (preAggregator != null) {
+      return preAggregator.counter(metricName, this::registryDeltaCounter);
+    }
+    return registryDeltaCounter(metricName);
+  }
+
+  @Override
+  public HistogramHandle histogram(MetricName metricName) {
+    if (preAggregator != null) {
+      return preAggregator.histogram(metricName, this::registryHistogram);
+    }
+    return registryHistogram(metricName);
+  }
+
+  private LazyHandle registryCounter(MetricName metricName) {
+    return new LazyHandle(() -> newCounter(metricName)::inc);
+  }
+
+  private LazyHandle registryDeltaCounter(MetricName metricName) {
+    return new LazyHandle(() -> newDeltaCounter(metricName)::inc);
+  }
+
+  private LazyHandle registryHistogram(MetricName metricName) {
+    return new LazyHandle(() -> newHistogram(metricName)::update);
+  }
+
+  private Counter newCounter(MetricName metricName) {
+    return track(metricName, wfReporter.newCounter(metricName));
+  }
+
+  private DeltaCounter newDeltaCounter(MetricName metricName) {
+    return track(metricName, wfReporter.newDeltaCounter(metricName));
+  }
+
+  private WavefrontHistogram newHistogram(MetricName metricName) {
+    return track(metricName, wfReporter.newWavefrontHistogram(metricName));
+  }
+
+  private <T extends Metric> T track(MetricName metricName, T metric) {
+    // checked first, since putIfAbsent locks the bin even if the name is present
+    if (!metrics.containsKey(metricName)) {
+      metrics.putIfAbsent(metricName, metric);
+    }
+    return metric;
+  }
+
+  /**
+   * Gauges are backed by a {@link LongAdder}: concurrent updates hit different cells instead of
+   * contending on a single value, and the cells are only summed when the gauge is reported.
+   */
+  @Override
+  public GaugeHandle gauge(MetricName metricName) {
+    LongAdder value = new LongAdder();
+    track(metricName, wfReporter.newGauge(metricName, () -> (() -> (double) value.sum())));
+    return new GaugeHandle() {
+      @Override
+      public void inc() {
+        value.increment();
+      }
+
+      @Override
+      public void dec() {
+        value.decrement();
+      }
+    };
+  }
+
+  /**
+   * Handle which registers the underlying metric on first update, so that resolving handles
+   * upfront does not report metrics that never get updated.
+   */
+  private static final class LazyHandle implements CounterHandle, HistogramHandle {
+    private final Supplier<LongConsumer> metricSupplier;
+    private volatile LongConsumer metric;
+
+    LazyHandle(Supplier<LongConsumer> metricSupplier) {
+      this.metricSupplier = metricSupplier;
+    }
+
+    private LongConsumer metric() {
+      LongConsumer toReturn = metric;
+      if (toReturn == null) {
+        // the registry returns the same metric for the same name, so racing here is harmless
+        toReturn = metricSupplier.get();
+        metric = toReturn;
+      }
+      return toReturn;
+    }
+
+    @Override
+    public void inc() {
+      metric().accept(1);
+    }
+
+    @Override
+    public void inc(long n) {
+      metric().accept(n);
+    }
+
+    @Override
+    public void update(long value) {
+      metric().accept(value);
+    }
+  }
+
+  /**
+   * Writes the current values of the metrics registered through this reporter as a JSON object
+   * with a {@code metrics} array, sorted by name. Names are the registered ones, without the
+   * {@code jersey.server} prefix added when reporting. Counters and gauges are written with their
+   * value, delta counters with their count since the last report, histograms with their count,
+   * median, 99th percentile and maximum of the current minute. The metrics are read directly,
+   * without going through the registry or blocking the reporting thread. Updates which are still
+   * pre-aggregated are not included.
+   *
+   * @param writer     writer to write the JSON to.
+   * @param namePrefix only write the metrics whose name starts with this prefix, if not null.
+   * @throws IOException if writing fails.
+   */
+  public void writeSnapshot(Writer writer, @Nullable String namePrefix) throws IOException {
+    List<Map.Entry<MetricName, Metric>> entries = new ArrayList<>();
+    for (Map.Entry<MetricName, Metric> entry : metrics.entrySet()) {
+      if (namePrefix == null || entry.getKey().getKey().startsWith(namePrefix)) {
+        entries.add(entry);
+      }
+    }
+    entries.sort(Comparator.comparing(entry -> entry.getKey().getKey()));
+    writer.write("{\"metrics\":[");
+    boolean first = true;
+    for (Map.Entry<MetricName, Metric> entry : entries) {
+      if (!first) {
+        writer.write(',');
+      }
+      first = false;
+      writer.write("{\"name\":");
+      writeString(writer, entry.getKey().getKey());
+      writer.write(",\"tags\":{");
+      boolean firstTag = true;
+      for (Map.Entry<String, String> tag : new TreeMap<>(entry.getKey().getTags()).entrySet()) {
+        if (!firstTag) {
+          writer.write(',');
+        }
+        firstTag = false;
+        writeString(writer, tag.getKey());
+        writer.write(':');
+        writeString(writer, tag.getValue());
+      }
+      writer.write('}');
+      writeValues(writer, entry.getValue());
+      writer.write('}');
+    }
+    writer.write("]}");
+  }
+
+  private static void writeValues(Writer writer, Metric metric) throws IOException {
+    if (metric instanceof DeltaCounter) {
+      writer.write(",\"type\":\"delta_counter\",\"count\":" + ((Counter) metric).getCount());
+    } else if (metric instanceof Counter) {
+      writer.write(",\"type\":\"counter\",\"count\":" + ((Counter) metric).getCount());
+    } else if (metric instanceof Gauge) {
+      Object value = ((Gauge<?>) metric).getValue();
+      writer.write(",\"type\":\"gauge\",\"value\":");
+      writeNumber(writer, value instanceof Number ? ((Number) value).doubleValue() : Double.NaN);
+    } else if (metric instanceof WavefrontHistogram) {
+      WavefrontHistogram histogram = (WavefrontHistogram) metric;
+      writer.write(",\"type\":\"histogram\",\"count\":" + histogram.getCount());
+      Snapshot snapshot = histogram.getSnapshot();
+      boolean empty = snapshot.size() == 0;
+      writer.write(",\"p50\":");
+      writeNumber(writer, empty ? Double.NaN : snapshot.getValue(0.5));
+      writer.write(",\"p99\":");
+      writeNumber(writer, empty ? Double.NaN : snapshot.getValue(0.99));
+      writer.write(",\"max\":");
+      writeNumber(writer, empty ? Double.NaN : snapshot.getMax());
+    }
+  }
+
+  private static void writeNumber(Writer writer, double value) throws IOException {
+    // JSON has no NaN or infinity
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writer.write("null");
+    } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      writer.write(Long.toString((long) value));
+    } else {
+      writer.write(Double.toString(value));
+    }
+  }
+
+  private static void writeString(Writer writer, String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
   }
 
   public static class Builder {
+    private static final long PRE_AGGREGATION_FLUSH_INTERVAL_MILLIS = 1000;
+
     // Required parameters
     private final ApplicationTags applicationTags;
     private final String prefix = "jersey.server";
 
     // Optional parameters
     private int reportingIntervalSeconds = 60;
+    private boolean preAggregation = false;
 
     @Nullable
     private String source;
@@ -123,6 +362,22 @@ public class WavefrontJerseyReporter implements SdkReporter {
       return this;
     }
 
+    /**
+     * Enable local pre-aggregation of the metrics updated through handles. Counter increments and
+     * histogram samples are then accumulated outside of the metric registry and merged into it by
+     * a background thread every {@value #PRE_AGGREGATION_FLUSH_INTERVAL_MILLIS} milliseconds,
+     * which takes the registry updates (including the histogram digests) off the request path.
+     * Histogram samples are binned by the minute in which they are merged, so samples recorded
+     * right before a minute boundary may be reported in the next minute. Disabled by default.
+     *
+     * @param preAggregation whether to pre-aggregate metrics locally.
+     * @return {@code this}.
+     */
+    public Builder preAggregation(boolean preAggregation) {
+      this.preAggregation = preAggregation;
+      return this;
+    }
+
     /**
      * Set the source tag for your metric and histograms.
      *
@@ -168,12 +423,16 @@ public class WavefrontJerseyReporter implements SdkReporter {
           () -> (() -> sdkVersion));
 
       return new WavefrontJerseyReporter(wfReporter, reportingIntervalSeconds, wavefrontSender,
-              applicationTags, source, sdkMetricsReporter);
+              applicationTags, source, sdkMetricsReporter, preAggregation ?
+          new PreAggregator(PRE_AGGREGATION_FLUSH_INTERVAL_MILLIS) : null);
     }
   }
 
   @Override
   public void start() {
+    if (preAggregator != null) {
+      preAggregator.start();
+    }
     wfReporter.start(reportingIntervalSeconds, TimeUnit.SECONDS);
     if (sdkMetricsReporter != null) {
       sdkMetricsReporter.start(1, TimeUnit.MINUTES);
@@ -183,6 +442,10 @@ public class WavefrontJerseyReporter implements SdkReporter {
   @Override
   public void stop() {
     heartbeaterService.close();
+    if (preAggregator != null) {
+      // merge what is left before the final report
+      preAggregator.stop();
+    }
     wfReporter.stop();
     if (sdkMetricsReporter != null) {
       sdkMetricsReporter.stop();
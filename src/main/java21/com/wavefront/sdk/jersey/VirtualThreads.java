@@ -0,0 +1,17 @@
+package com.wavefront.sdk.jersey;
+
+/**
+ * Virtual thread support on JDK 21 and later.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return true if the current thread is a virtual thread.
+   */
+  static boolean isCurrentThreadVirtual() {
+    return Thread.currentThread().isVirtual();
+  }
+}
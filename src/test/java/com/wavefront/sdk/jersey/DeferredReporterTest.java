@@ -0,0 +1,159 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.GaugeHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.HistogramHandle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the metrics recorded by {@link DeferredReporter} before and after its reporter is built.
+ */
+public class DeferredReporterTest {
+  private static final MetricName DROPPED = new MetricName("deferred.updates.dropped",
+      Collections.emptyMap());
+  private static final MetricName COUNTER = new MetricName("counter", Collections.emptyMap());
+  private static final MetricName HISTOGRAM = new MetricName("histogram",
+      Collections.emptyMap());
+  private static final MetricName GAUGE = new MetricName("gauge", Collections.emptyMap());
+
+  @Test
+  public void testUpdatesDroppedUntilComplete() {
+    DeferredReporter deferredReporter = new DeferredReporter(DROPPED);
+    CounterHandle counter = deferredReporter.counter(COUNTER);
+    HistogramHandle histogram = deferredReporter.histogram(HISTOGRAM);
+    counter.inc();
+    counter.inc(5);
+    histogram.update(10);
+    deferredReporter.incrementCounter(COUNTER);
+    assertEquals(4, deferredReporter.getDroppedUpdates());
+
+    RecordingReporter reporter = new RecordingReporter();
+    deferredReporter.complete(reporter);
+    // the dropped updates are reported once
+    assertEquals(4, reporter.value(DROPPED));
+    assertEquals(0, reporter.value(COUNTER));
+
+    counter.inc();
+    counter.inc(5);
+    histogram.update(10);
+    deferredReporter.incrementCounter(COUNTER);
+    assertEquals(7, reporter.value(COUNTER));
+    assertEquals(1, reporter.value(HISTOGRAM));
+    assertEquals(4, deferredReporter.getDroppedUpdates());
+  }
+
+  @Test
+  public void testGaugeHandedOver() {
+    DeferredReporter deferredReporter = new DeferredReporter(DROPPED);
+    GaugeHandle gauge = deferredReporter.gauge(GAUGE);
+    gauge.inc();
+    gauge.inc();
+    gauge.inc();
+    gauge.dec();
+
+    RecordingReporter reporter = new RecordingReporter();
+    deferredReporter.complete(reporter);
+    // the balance of the requests which started before is taken over
+    assertEquals(2, reporter.value(GAUGE));
+    gauge.dec();
+    gauge.dec();
+    assertEquals(0, reporter.value(GAUGE));
+    // gauges are not updates which could be dropped
+    assertEquals(0, reporter.value(DROPPED));
+  }
+
+  @Test
+  public void testGaugeBalancedAcrossComplete() throws InterruptedException {
+    DeferredReporter deferredReporter = new DeferredReporter(DROPPED);
+    GaugeHandle gauge = deferredReporter.gauge(GAUGE);
+    RecordingReporter reporter = new RecordingReporter();
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> requests = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread request = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < 100_000; i++) {
+          gauge.inc();
+          gauge.dec();
+        }
+      });
+      request.start();
+      requests.add(request);
+    }
+    start.countDown();
+    deferredReporter.complete(reporter);
+    for (Thread request : requests) {
+      request.join();
+    }
+    assertEquals(0, reporter.value(GAUGE));
+  }
+
+  /**
+   * Reporter recording the counter, histogram and gauge values by metric name.
+   */
+  private static final class RecordingReporter implements SdkReporter {
+    private final Map<MetricName, AtomicInteger> values = new ConcurrentHashMap<>();
+
+    int value(MetricName metricName) {
+      AtomicInteger value = values.get(metricName);
+      return value == null ? 0 : value.get();
+    }
+
+    private AtomicInteger computeIfAbsent(MetricName metricName) {
+      return values.computeIfAbsent(metricName, key -> new AtomicInteger());
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName) {
+      computeIfAbsent(metricName).incrementAndGet();
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName, long n) {
+      computeIfAbsent(metricName).addAndGet((int) n);
+    }
+
+    @Override
+    public void incrementDeltaCounter(MetricName metricName) {
+      computeIfAbsent(metricName).incrementAndGet();
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long value) {
+      computeIfAbsent(metricName).incrementAndGet();
+    }
+
+    @Override
+    public void registerGauge(MetricName metricName, AtomicInteger value) {
+      values.put(metricName, value);
+    }
+
+    @Override
+    public void start() {
+      // no-op
+    }
+
+    @Override
+    public void stop() {
+      // no-op
+    }
+  }
+}
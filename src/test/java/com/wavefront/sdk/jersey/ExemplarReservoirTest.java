@@ -0,0 +1,80 @@
+package com.wavefront.sdk.jersey;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.opentracing.SpanContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the slowest requests per minute kept by {@link ExemplarReservoir}.
+ */
+public class ExemplarReservoirTest {
+
+  @Test
+  public void testSlowestRequestsKept() throws InterruptedException {
+    awaitMinuteStart();
+    ExemplarReservoir reservoir = new ExemplarReservoir(200, 3);
+    assertTrue(reservoir.get().isEmpty());
+
+    // kept while the reservoir is not full
+    assertTrue(reservoir.offer(5, context("a")));
+    assertTrue(reservoir.offer(1, context("b")));
+    assertTrue(reservoir.offer(9, context("c")));
+    // then only if slower than the fastest one kept, which is replaced
+    assertTrue(reservoir.offer(7, context("d")));
+    assertFalse(reservoir.offer(4, context("e")));
+    assertFalse(reservoir.offer(5, context("f")));
+    assertTrue(reservoir.offer(8, context("g")));
+
+    List<LatencyExemplar> exemplars = reservoir.get();
+    assertEquals(3, exemplars.size());
+    Map<String, Long> latencies = exemplars.stream().collect(Collectors.toMap(
+        LatencyExemplar::getTraceId, LatencyExemplar::getLatency));
+    assertEquals(9, (long) latencies.get("c"));
+    assertEquals(7, (long) latencies.get("d"));
+    assertEquals(8, (long) latencies.get("g"));
+    for (LatencyExemplar exemplar : exemplars) {
+      assertEquals(200, exemplar.getStatus());
+    }
+  }
+
+  /**
+   * Waits for the next minute if the current one is about to end, so that the requests offered
+   * by a test fall into the same minute.
+   */
+  private static void awaitMinuteStart() throws InterruptedException {
+    long minuteMillis = TimeUnit.MINUTES.toMillis(1);
+    long remaining = minuteMillis - System.currentTimeMillis() % minuteMillis;
+    if (remaining < TimeUnit.SECONDS.toMillis(5)) {
+      Thread.sleep(remaining + 10);
+    }
+  }
+
+  private static SpanContext context(String traceId) {
+    return new SpanContext() {
+      @Override
+      public String toTraceId() {
+        return traceId;
+      }
+
+      @Override
+      public String toSpanId() {
+        return traceId;
+      }
+
+      @Override
+      public Iterable<Map.Entry<String, String>> baggageItems() {
+        return Collections.emptyList();
+      }
+    };
+  }
+}
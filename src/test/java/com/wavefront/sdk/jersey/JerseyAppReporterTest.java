@@ -9,14 +9,29 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
+import javax.ws.rs.container.AsyncResponse;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.Tracer;
+import io.opentracing.propagation.Format;
 
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
@@ -30,8 +45,12 @@ import static com.wavefront.sdk.common.Constants.CLUSTER_TAG_KEY;
 import static com.wavefront.sdk.common.Constants.SERVICE_TAG_KEY;
 import static com.wavefront.sdk.common.Constants.SHARD_TAG_KEY;
 import static com.wavefront.sdk.common.Constants.WAVEFRONT_PROVIDED_SOURCE;
+import static com.wavefront.sdk.jaxrs.Constants.WF_SPAN_HEADER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test class to test reported metric/histogram for Dropwizard (Jersey) apps requests/responses
@@ -40,7 +59,7 @@ import static org.junit.Assert.assertNotNull;
  */
 public class JerseyAppReporterTest {
 
-  private final SampleApp sampleApp = new SampleApp();
+  private SampleApp sampleApp = new SampleApp();
   private int httpPort;
 
   @Before
@@ -49,6 +68,673 @@ public class JerseyAppReporterTest {
     httpPort = sampleApp.getHttpPort();
   }
 
+  /**
+   * Serves the following requests of a test by another app, whose filter is customized.
+   */
+  private void startSampleApp(Consumer<WavefrontJerseyFilter.Builder> filterCustomizer)
+      throws Exception {
+    sampleApp = new SampleApp(filterCustomizer);
+    sampleApp.run("server");
+    httpPort = sampleApp.getHttpPort();
+  }
+
+  private static Map<String, String> overallTags() {
+    return new HashMap<String, String>() {{
+      put(CLUSTER_TAG_KEY, SampleApp.CLUSTER);
+      put(SERVICE_TAG_KEY, SampleApp.SERVICE);
+      put(SHARD_TAG_KEY, SampleApp.SHARD);
+    }};
+  }
+
+  private static Map<String, String> routeTags(String className, String methodName) {
+    return new HashMap<String, String>() {{
+      putAll(overallTags());
+      put("jersey.resource.class", className);
+      put("jersey.resource.method", methodName);
+      put("operationName", className.substring(className.lastIndexOf('.') + 1) + "." +
+          methodName);
+    }};
+  }
+
+  private static Map<String, String> sampleResourceTags(String methodName) {
+    return routeTags(SampleApp.SampleResource.class.getCanonicalName(), methodName);
+  }
+
+  @Test
+  public void testUnsampledRequestsNotTraced() throws Exception {
+    startSampleApp(builder -> builder.traceSampling(new TraceSamplingPolicy.Builder().
+        probability(0).honourUpstreamDecision(true).build()));
+
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertEquals(200, response.code());
+      assertNull(response.header(WF_SPAN_HEADER));
+    }
+    assertNull(sampleApp.reportedSpan("SampleResource.getAll"));
+    // unsampled requests are measured nevertheless
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.cumulative", sampleResourceTags("getAll"))));
+
+    // the caller sampled the request
+    try (Response response = executeGetRequest("sample/foo/bar", "X-B3-Sampled", "1")) {
+      assertEquals(200, response.code());
+      assertNotNull(response.header(WF_SPAN_HEADER));
+    }
+    assertNotNull(sampleApp.reportedSpan("SampleResource.getAll"));
+  }
+
+  @Test
+  public void testAsyncMetrics() throws Exception {
+    startSampleApp(builder -> builder.asyncMetrics(16, true));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    }
+    // recorded by the consumer thread, possibly after the responses reached the client
+    awaitReportedValue(3, new MetricName("response.sample.foo.bar.GET.200.cumulative",
+        sampleResourceTags("getAll")));
+    awaitReportedValue(3, new MetricName("response.sample.foo.bar.GET.200.latency",
+        sampleResourceTags("getAll")));
+    awaitReportedValue(3, new MetricName("response.completed.aggregated_per_source",
+        overallTags()));
+    // inflight gauges are still updated on the request thread
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.sample.foo.bar.GET.inflight", sampleResourceTags("getAll"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName("response.events.dropped",
+        overallTags())));
+  }
+
+  @Test
+  public void testEntityWriteMeasured() throws Exception {
+    MetricName serializationNanos = new MetricName(
+        "response.sample.foo.bar.GET.200.serialization_ns", sampleResourceTags("getAll"));
+    MetricName responseBytes = new MetricName("response.sample.foo.bar.GET.200.response_bytes",
+        sampleResourceTags("getAll"));
+    MetricName latency = new MetricName("response.sample.foo.bar.GET.200.latency",
+        sampleResourceTags("getAll"));
+
+    // not measured by default
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(1, sampleApp.reportedValue(latency));
+    assertEquals(0, sampleApp.reportedValue(serializationNanos));
+    assertEquals(0, sampleApp.reportedValue(responseBytes));
+    // nor resolved, so that no histogram is kept for it
+    assertFalse(sampleApp.isHistogramResolved(serializationNanos));
+
+    startSampleApp(builder -> builder.measureEntityWrite(true).latencyExemplars(1));
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    // recorded once the entity has been written, possibly after the client got the response
+    awaitReportedValue(1, latency);
+    awaitReportedValue(1, serializationNanos);
+    assertTrue(sampleApp.isHistogramResolved(serializationNanos));
+    // the size is measured with the payload sizes
+    assertEquals(0, sampleApp.reportedValue(responseBytes));
+    assertFalse(sampleApp.isHistogramResolved(responseBytes));
+    // responses without an entity are measured by the response filter
+    assertEquals(204, invokePostRequest("sample/foo/bar"));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.POST.204.latency", sampleResourceTags("barCreate"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.POST.204.serialization_ns", sampleResourceTags("barCreate"))));
+
+    // the span ends with the latency of the exemplar, once the entity has been written
+    WavefrontSpan span = awaitReportedSpan("SampleResource.getAll");
+    assertTrue(span.getTagsAsList().contains(new Pair<>("jersey.latency.exemplar", "true")));
+  }
+
+  @Test
+  public void testPayloadSizeMeasured() throws Exception {
+    String entity = "Wavefront Jersey SDK";
+    MetricName requestBytes = new MetricName("response.sample.foo.bar.echo.POST.200.request_bytes",
+        sampleResourceTags("barEcho"));
+    MetricName responseBytes = new MetricName(
+        "response.sample.foo.bar.echo.POST.200.response_bytes", sampleResourceTags("barEcho"));
+
+    // not measured by default
+    assertEquals(200, invokePostRequest("sample/foo/bar/echo", entity, false));
+    assertEquals(0, sampleApp.reportedValue(requestBytes));
+    assertEquals(0, sampleApp.reportedValue(responseBytes));
+    // nor resolved, so that no histogram is kept for them
+    assertFalse(sampleApp.isHistogramResolved(requestBytes));
+    assertFalse(sampleApp.isHistogramResolved(responseBytes));
+
+    startSampleApp(builder -> builder.measurePayloadSize(true));
+    assertEquals(200, invokePostRequest("sample/foo/bar/echo", entity, false));
+    // the response size is recorded once the entity has been written
+    awaitReportedValue(1, responseBytes);
+    assertEquals(1, sampleApp.reportedValue(requestBytes));
+    assertEquals(entity.length(), (long) sampleApp.lastHistogramValue(requestBytes));
+    assertEquals(entity.length(), (long) sampleApp.lastHistogramValue(responseBytes));
+    // the time spent writing is measured with the entity writes
+    assertFalse(sampleApp.isHistogramResolved(new MetricName(
+        "response.sample.foo.bar.echo.POST.200.serialization_ns", sampleResourceTags("barEcho"))));
+
+    // without a content length, the bytes read by the entity provider are counted
+    assertEquals(200, invokePostRequest("sample/foo/bar/echo", entity + entity, true));
+    awaitReportedValue(2, responseBytes);
+    assertEquals(2, sampleApp.reportedValue(requestBytes));
+    assertEquals(2 * entity.length(), (long) sampleApp.lastHistogramValue(requestBytes));
+    assertEquals(2 * entity.length(), (long) sampleApp.lastHistogramValue(responseBytes));
+  }
+
+  @Test
+  public void testLatencySlo() throws Exception {
+    startSampleApp(builder -> builder.latencySlo("sample.foo.bar._id_.GET", 1, TimeUnit.HOURS,
+        0.99));
+    MetricName good = new MetricName("response.sample.foo.bar._id_.GET.slo.good",
+        sampleResourceTags("barGet"));
+    MetricName bad = new MetricName("response.sample.foo.bar._id_.GET.slo.bad",
+        sampleResourceTags("barGet"));
+    WavefrontJerseyFilter filter = sampleApp.getFilter();
+
+    // no burn rate before the first request
+    assertTrue(Double.isNaN(filter.getSloBurnRate("sample.foo.bar._id_.GET", 1,
+        TimeUnit.MINUTES)));
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    assertEquals(1, sampleApp.reportedValue(good));
+    assertEquals(0, sampleApp.reportedValue(bad));
+    assertEquals(0, filter.getSloBurnRate("sample.foo.bar._id_.GET", 1, TimeUnit.MINUTES),
+        0);
+
+    // errors miss the objective whatever their latency
+    assertEquals(500, invokeGetRequest("sample/foo/bar/error"));
+    assertEquals(1, sampleApp.reportedValue(good));
+    assertEquals(1, sampleApp.reportedValue(bad));
+    // half of the responses are bad while the budget is 1%
+    assertEquals(50, filter.getSloBurnRate("sample.foo.bar._id_.GET", 1, TimeUnit.MINUTES),
+        0.001);
+
+    // routes without an objective have no burn rate
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertTrue(Double.isNaN(filter.getSloBurnRate("sample.foo.bar.GET", 1, TimeUnit.MINUTES)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName("response.sample.foo.bar.GET.slo.good",
+        sampleResourceTags("getAll"))));
+  }
+
+  @Test
+  public void testLatencyExemplars() throws Exception {
+    // not kept by default
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertTrue(sampleApp.getFilter().getLatencyExemplars("sample.foo.bar.GET").isEmpty());
+    assertFalse(sampleApp.reportedSpan("SampleResource.getAll").getTagsAsList().contains(
+        new Pair<>("jersey.latency.exemplar", "true")));
+
+    startSampleApp(builder -> builder.latencyExemplars(2));
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    }
+    assertEquals(500, invokeGetRequest("sample/foo/bar/error"));
+
+    // the slowest 2 of the minute, or of the previous and current minute at a minute boundary
+    List<LatencyExemplar> exemplars =
+        sampleApp.getFilter().getLatencyExemplars("sample.foo.bar.GET");
+    assertTrue(exemplars.toString(), exemplars.size() >= 2 && exemplars.size() <= 4);
+    for (int i = 0; i < exemplars.size(); i++) {
+      assertEquals(200, exemplars.get(i).getStatus());
+      assertNotNull(exemplars.get(i).getTraceId());
+      if (i > 0) {
+        // slowest first
+        assertTrue(exemplars.get(i - 1).getLatency() >= exemplars.get(i).getLatency());
+      }
+    }
+    // kept per status code
+    List<LatencyExemplar> errorExemplars =
+        sampleApp.getFilter().getLatencyExemplars("sample.foo.bar._id_.GET");
+    assertEquals(1, errorExemplars.size());
+    assertEquals(500, errorExemplars.get(0).getStatus());
+
+    // the first request of the minute is always kept, and its span tagged
+    WavefrontSpan span = sampleApp.reportedSpan("SampleResource.getAll");
+    assertTrue(span.getTagsAsList().contains(new Pair<>("jersey.latency.exemplar", "true")));
+    WavefrontSpan errorSpan = sampleApp.reportedSpan("SampleResource.barGet");
+    assertEquals(errorExemplars.get(0).getTraceId(), errorSpan.context().toTraceId());
+    assertTrue(errorSpan.getTagsAsList().contains(
+        new Pair<>("jersey.latency.exemplar", "true")));
+    assertTrue(sampleApp.getFilter().getLatencyExemplars("sample.unknown.GET").isEmpty());
+  }
+
+  @Test
+  public void testAggregationLevelsAndMetricFamilies() throws Exception {
+    MetricName apiInflight = new MetricName("request.sample.foo.bar.GET.inflight",
+        sampleResourceTags("getAll"));
+    MetricName totalInflight = new MetricName("total_requests.inflight", overallTags());
+    // every family is reported by default
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertTrue(sampleApp.isGaugeRegistered(apiInflight));
+    assertTrue(sampleApp.isGaugeRegistered(totalInflight));
+
+    startSampleApp(builder -> builder.
+        aggregationLevels(EnumSet.of(AggregationLevel.SOURCE, AggregationLevel.APPLICATION)).
+        metricFamilies(EnumSet.of(MetricFamily.COMPLETED, MetricFamily.LATENCY)));
+    Map<String, String> tags = sampleResourceTags("getAll");
+
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    // levels of the completed counters
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.cumulative", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.aggregated_per_application", aggregatedTags(tags))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.aggregated_per_cluster",
+        aggregatedTags(tags, CLUSTER_TAG_KEY))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.aggregated_per_service",
+        aggregatedTags(tags, CLUSTER_TAG_KEY, SERVICE_TAG_KEY))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.aggregated_per_shard",
+        aggregatedTags(tags, CLUSTER_TAG_KEY, SERVICE_TAG_KEY, SHARD_TAG_KEY))));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_source", overallTags())));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_application", aggregatedTags(overallTags()))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_service",
+        aggregatedTags(overallTags(), CLUSTER_TAG_KEY, SERVICE_TAG_KEY))));
+
+    // families
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.latency", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.cpu_ns", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.total_time", tags)));
+    assertFalse(sampleApp.isGaugeRegistered(apiInflight));
+    assertFalse(sampleApp.isGaugeRegistered(totalInflight));
+
+    assertEquals(500, invokeGetRequest("sample/foo/bar/error"));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.500.cumulative", sampleResourceTags("barGet"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.errors", sampleResourceTags("barGet"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.errors.aggregated_per_source", overallTags())));
+  }
+
+  @Test
+  public void testHistogramStatusGroups() throws Exception {
+    startSampleApp(builder -> builder.histogramStatusClasses(true).
+        histogramStatusGroup("server_error", 500, 503));
+    Map<String, String> tags = sampleResourceTags("barGet");
+
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    assertEquals(200, invokeGetRequest("sample/foo/bar/456"));
+    assertEquals(500, invokeGetRequest("sample/foo/bar/error"));
+    assertEquals(204, invokePutRequest("sample/foo/bar/123"));
+
+    // histograms are keyed by the status class, or by the named group of the status
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.2xx.latency", tags)));
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.2xx.cpu_ns", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.server_error.latency", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.PUT.2xx.latency", sampleResourceTags("barUpdate"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.latency", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.500.latency", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.5xx.latency", tags)));
+
+    // counters stay per status code
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.500.cumulative", tags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.PUT.204.cumulative", sampleResourceTags("barUpdate"))));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.2xx.cumulative", tags)));
+  }
+
+  /**
+   * @param tags             tags of a metric reported per source.
+   * @param applicationTagKeys application tags kept at the aggregation level.
+   * @return the tags of the metric aggregated at a level.
+   */
+  private static Map<String, String> aggregatedTags(Map<String, String> tags,
+                                                    String... applicationTagKeys) {
+    Map<String, String> toReturn = new HashMap<>(tags);
+    toReturn.keySet().removeAll(Arrays.asList(CLUSTER_TAG_KEY, SERVICE_TAG_KEY, SHARD_TAG_KEY));
+    for (String key : applicationTagKeys) {
+      toReturn.put(key, tags.get(key));
+    }
+    toReturn.put("source", WAVEFRONT_PROVIDED_SOURCE);
+    return toReturn;
+  }
+
+  private WavefrontSpan awaitReportedSpan(String operationName) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sampleApp.reportedSpan(operationName) == null &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    WavefrontSpan span = sampleApp.reportedSpan(operationName);
+    assertNotNull(span);
+    return span;
+  }
+
+  @Test
+  public void testMaxRoutes() throws Exception {
+    startSampleApp(builder -> builder.maxRoutes(1));
+    Map<String, String> overflowTags = routeTags("unknown", "unknown");
+    MetricName overflowed = new MetricName("routes.overflowed", overallTags());
+
+    // the cap is charged by the first route requested, not by the application model
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", sampleResourceTags("barGet"))));
+    assertEquals(0, sampleApp.reportedValue(overflowed));
+
+    // further routes are reported under the overflow route, counted per request
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(204, invokePostRequest("sample/foo/bar"));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.cumulative", sampleResourceTags("getAll"))));
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.other.GET.200.cumulative", overflowTags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.other.POST.204.cumulative", overflowTags)));
+    assertEquals(3, sampleApp.reportedValue(overflowed));
+
+    // the first route keeps its own metrics
+    assertEquals(200, invokeGetRequest("sample/foo/bar/456"));
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", sampleResourceTags("barGet"))));
+
+    // an ignored route included at runtime is subject to the cap too
+    sampleApp.getFilter().setRouteExcluded("sample.ignored.GET", false);
+    assertEquals(200, invokeGetRequest("sample/ignored"));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.ignored.GET.200.cumulative",
+        routeTags(SampleApp.IgnoredResource.class.getCanonicalName(), "getIgnored"))));
+    assertEquals(3, sampleApp.reportedValue(new MetricName(
+        "response.other.GET.200.cumulative", overflowTags)));
+    assertEquals(4, sampleApp.reportedValue(overflowed));
+  }
+
+  @Test
+  public void testIgnoredRoute() throws Exception {
+    Map<String, String> tags = routeTags(SampleApp.IgnoredResource.class.getCanonicalName(),
+        "getIgnored");
+
+    try (Response response = executeGetRequest("sample/ignored")) {
+      assertEquals(200, response.code());
+      assertNull(response.header(WF_SPAN_HEADER));
+    }
+    assertTrue(sampleApp.getFilter().isRouteExcluded("sample.ignored.GET"));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.ignored.GET.200.cumulative", tags)));
+    assertFalse(sampleApp.isGaugeRegistered(new MetricName("request.sample.ignored.GET.inflight",
+        tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_source", overallTags())));
+    assertNull(sampleApp.reportedSpan("IgnoredResource.getIgnored"));
+  }
+
+  @Test
+  public void testRouteExcludedAtRuntime() throws Exception {
+    WavefrontJerseyFilter filter = sampleApp.getFilter();
+    MetricName cumulative = new MetricName("response.sample.foo.bar.GET.200.cumulative",
+        sampleResourceTags("getAll"));
+
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertNotNull(response.header(WF_SPAN_HEADER));
+    }
+    assertEquals(1, sampleApp.reportedValue(cumulative));
+
+    filter.setRouteExcluded("sample.foo.bar.GET", true);
+    assertTrue(filter.isRouteExcluded("sample.foo.bar.GET"));
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertEquals(200, response.code());
+      assertNull(response.header(WF_SPAN_HEADER));
+    }
+    assertEquals(1, sampleApp.reportedValue(cumulative));
+    // other routes are unaffected
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", sampleResourceTags("barGet"))));
+
+    filter.setRouteExcluded("sample.foo.bar.GET", false);
+    assertFalse(filter.isRouteExcluded("sample.foo.bar.GET"));
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertNotNull(response.header(WF_SPAN_HEADER));
+    }
+    assertEquals(2, sampleApp.reportedValue(cumulative));
+
+    // the annotation of an ignored route is overridden too
+    filter.setRouteExcluded("sample.ignored.GET", false);
+    assertEquals(200, invokeGetRequest("sample/ignored"));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.sample.ignored.GET.200.cumulative",
+        routeTags(SampleApp.IgnoredResource.class.getCanonicalName(), "getIgnored"))));
+    awaitReportedSpan("IgnoredResource.getIgnored");
+  }
+
+  @Test
+  public void testOverflowedRouteExcludedAtRuntime() throws Exception {
+    startSampleApp(builder -> builder.maxRoutes(1));
+    WavefrontJerseyFilter filter = sampleApp.getFilter();
+    MetricName overflowCumulative = new MetricName("response.other.GET.200.cumulative",
+        routeTags("unknown", "unknown"));
+    MetricName overflowed = new MetricName("routes.overflowed", overallTags());
+
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(1, sampleApp.reportedValue(overflowCumulative));
+    assertEquals(1, sampleApp.reportedValue(overflowed));
+
+    // excluded by its own name, although reported under the overflow route
+    filter.setRouteExcluded("sample.foo.bar.GET", true);
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(1, sampleApp.reportedValue(overflowCumulative));
+    assertEquals(1, sampleApp.reportedValue(overflowed));
+
+    filter.setRouteExcluded("sample.foo.bar.GET", false);
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(2, sampleApp.reportedValue(overflowCumulative));
+    assertEquals(2, sampleApp.reportedValue(overflowed));
+
+    // every overflowed route is excluded by the name of the overflow route
+    filter.setRouteExcluded("other.GET", true);
+    assertTrue(filter.isRouteExcluded("other.GET"));
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(2, sampleApp.reportedValue(overflowCumulative));
+    assertEquals(2, sampleApp.reportedValue(overflowed));
+    // the route under its own name is unaffected
+    assertEquals(200, invokeGetRequest("sample/foo/bar/456"));
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar._id_.GET.200.cumulative", sampleResourceTags("barGet"))));
+
+    filter.setRouteExcluded("other.GET", false);
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(3, sampleApp.reportedValue(overflowCumulative));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    WavefrontJerseyFilter filter = sampleApp.getFilter();
+    Map<String, String> tags = sampleResourceTags("getAll");
+    MetricName cumulative = new MetricName("response.sample.foo.bar.GET.200.cumulative", tags);
+    MetricName completed = new MetricName("response.completed.aggregated_per_source",
+        overallTags());
+
+    filter.setEnabled(false);
+    assertFalse(filter.isEnabled());
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertEquals(200, response.code());
+      assertNull(response.header(WF_SPAN_HEADER));
+    }
+    assertEquals(0, sampleApp.reportedValue(cumulative));
+    assertEquals(0, sampleApp.reportedValue(completed));
+    assertEquals(0, sampleApp.reportedValue(new MetricName("request.sample.foo.bar.GET.inflight",
+        tags)));
+    assertNull(sampleApp.reportedSpan("SampleResource.getAll"));
+
+    filter.setEnabled(true);
+    try (Response response = executeGetRequest("sample/foo/bar")) {
+      assertNotNull(response.header(WF_SPAN_HEADER));
+    }
+    assertEquals(1, sampleApp.reportedValue(cumulative));
+    assertEquals(1, sampleApp.reportedValue(completed));
+    awaitReportedSpan("SampleResource.getAll");
+  }
+
+  @Test
+  public void testLoadShedding() throws Exception {
+    startSampleApp(builder -> builder.loadShedding(new LoadSheddingPolicy.Builder(1).
+        retryAfterSeconds(3).build()));
+    Map<String, String> heldTags = sampleResourceTags("getAllHeld");
+    MetricName routeShed = new MetricName("request.sample.foo.bar.held.GET.shed", heldTags);
+    MetricName totalShed = new MetricName("request.shed", overallTags());
+    MetricName inflight = new MetricName("request.sample.foo.bar.held.GET.inflight", heldTags);
+
+    // the first request is admitted and held inflight
+    CompletableFuture<Integer> held = invokeGetRequestAsync("sample/foo/bar/held");
+    AsyncResponse heldResponse = sampleApp.takeHeldResponse();
+    assertNotNull(heldResponse);
+    assertEquals(1, sampleApp.reportedValue(inflight));
+
+    // the next one is beyond the limit of the route
+    try (Response response = executeGetRequest("sample/foo/bar/held")) {
+      assertEquals(503, response.code());
+      assertEquals("3", response.header("Retry-After"));
+    }
+    assertEquals(1, sampleApp.reportedValue(routeShed));
+    assertEquals(1, sampleApp.reportedValue(totalShed));
+    // rejected before being counted inflight
+    assertEquals(1, sampleApp.reportedValue(inflight));
+
+    // the limit applies per route
+    assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.sample.foo.bar.GET.shed", sampleResourceTags("getAll"))));
+
+    // released by the response filter, the next request is admitted
+    heldResponse.resume("don't care");
+    assertEquals(200, (int) held.get(5, TimeUnit.SECONDS));
+    assertEquals(0, sampleApp.reportedValue(inflight));
+    held = invokeGetRequestAsync("sample/foo/bar/held");
+    heldResponse = sampleApp.takeHeldResponse();
+    assertNotNull(heldResponse);
+    heldResponse.resume("don't care");
+    assertEquals(200, (int) held.get(5, TimeUnit.SECONDS));
+    assertEquals(1, sampleApp.reportedValue(routeShed));
+    assertEquals(1, sampleApp.reportedValue(totalShed));
+  }
+
+  @Test
+  public void testLoadReleasedWhenRequestFinished() throws Exception {
+    startSampleApp(builder -> builder.loadShedding(new LoadSheddingPolicy.Builder(1).build()));
+    Map<String, String> tags = sampleResourceTags("getFiltered");
+
+    // the response filter of the WavefrontJerseyFilter does not run for these requests
+    for (int i = 0; i < 3; i++) {
+      assertEquals(500, invokeGetRequest("sample/foo/bar/filtered"));
+      // released when the request finished, which may be after the response reached the client
+      awaitReportedValue(0, new MetricName("request.sample.foo.bar.filtered.GET.inflight",
+          tags));
+    }
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.sample.foo.bar.filtered.GET.shed", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName("request.shed", overallTags())));
+  }
+
+  @Test
+  public void testLoadReleasedWhenTracingFails() throws Exception {
+    startSampleApp(builder -> builder.withTracer(new FailingTracer(sampleApp.getTracer(),
+        "SampleResource.getAll")).loadShedding(new LoadSheddingPolicy.Builder(1).build()));
+    Map<String, String> tags = sampleResourceTags("getAll");
+
+    // the request is served unmeasured, and does not keep its slot
+    for (int i = 0; i < 3; i++) {
+      assertEquals(200, invokeGetRequest("sample/foo/bar"));
+    }
+    assertEquals(0, sampleApp.reportedValue(new MetricName("request.sample.foo.bar.GET.shed",
+        tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request.sample.foo.bar.GET.inflight", tags)));
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "response.sample.foo.bar.GET.200.cumulative", tags)));
+
+    // other operations are traced
+    assertEquals(200, invokeGetRequest("sample/foo/bar/123"));
+    awaitReportedSpan("SampleResource.barGet");
+  }
+
+  /**
+   * Tracer which fails to build the spans of one operation.
+   */
+  private static final class FailingTracer implements Tracer {
+    private final Tracer delegate;
+    private final String failingOperationName;
+
+    FailingTracer(Tracer delegate, String failingOperationName) {
+      this.delegate = delegate;
+      this.failingOperationName = failingOperationName;
+    }
+
+    @Override
+    public ScopeManager scopeManager() {
+      return delegate.scopeManager();
+    }
+
+    @Override
+    public Span activeSpan() {
+      return delegate.activeSpan();
+    }
+
+    @Override
+    public Scope activateSpan(Span span) {
+      return delegate.activateSpan(span);
+    }
+
+    @Override
+    public SpanBuilder buildSpan(String operationName) {
+      if (operationName.equals(failingOperationName)) {
+        throw new IllegalStateException("tracer error");
+      }
+      return delegate.buildSpan(operationName);
+    }
+
+    @Override
+    public <C> void inject(SpanContext spanContext, Format<C> format, C carrier) {
+      delegate.inject(spanContext, format, carrier);
+    }
+
+    @Override
+    public <C> SpanContext extract(Format<C> format, C carrier) {
+      return delegate.extract(format, carrier);
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+
+  @Test
+  public void testRequestPathRoutesNamedOnce() throws Exception {
+    WavefrontJerseyFilter filter = sampleApp.getFilter();
+    long derivations = filter.getRouteNameDerivations();
+
+    // sub-resources returned by a locator are not part of the application model
+    for (int i = 0; i < 5; i++) {
+      try (Response response = executeGetRequest("sample/foo/bar/1/parts/" + i)) {
+        assertEquals(200, response.code());
+        assertNotNull(response.header(WF_SPAN_HEADER));
+      }
+    }
+    assertEquals(derivations + 1, filter.getRouteNameDerivations());
+
+    // HEAD requests are served by the GET method of the route
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, invokeHeadRequest("sample/foo/bar"));
+    }
+    assertEquals(derivations + 2, filter.getRouteNameDerivations());
+  }
+
   @Test
   public void testCRUD() throws URISyntaxException, IOException {
     testCreate();
@@ -60,6 +746,74 @@ public class JerseyAppReporterTest {
     testOverallAggregatedMetrics();
   }
 
+  @Test
+  public void testAsync() throws IOException {
+    testAsync("sample/foo/bar/async", "sample.foo.bar.async.GET", "getAllAsync");
+    testAsync("sample/foo/bar/stage", "sample.foo.bar.stage.GET", "getAllStage");
+
+    // every async request has left the inflight gauge
+    assertEquals(0, sampleApp.reportedValue(new MetricName("total_requests.inflight",
+        overallTags())));
+    assertEquals(2, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_source", overallTags())));
+  }
+
+  @Test
+  public void testResponseFilterSkipped() throws IOException, InterruptedException {
+    Map<String, String> tags = sampleResourceTags("getFiltered");
+    Map<String, String> overallTags = overallTags();
+
+    // the response filter of the WavefrontJerseyFilter does not run for these requests
+    for (int i = 0; i < 3; i++) {
+      assertEquals(500, invokeGetRequest("sample/foo/bar/filtered"));
+      // released exactly once when the request finished, which may be after the response
+      // reached the client
+      awaitReportedValue(0, new MetricName("request.sample.foo.bar.filtered.GET.inflight",
+          tags));
+      awaitReportedValue(0, new MetricName("total_requests.inflight", overallTags));
+    }
+
+    // no state of the failed requests leaks into the next ones
+    testGetAll();
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "total_requests.inflight", overallTags)));
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response.completed.aggregated_per_source", overallTags)));
+  }
+
+  private void awaitReportedValue(int expected, MetricName metricName)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (sampleApp.reportedValue(metricName) != expected &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, sampleApp.reportedValue(metricName));
+  }
+
+  private void testAsync(String pathSegments, String metricName, String methodName)
+      throws IOException {
+    assertEquals(200, invokeGetRequest(pathSegments));
+
+    Map<String, String> tags = sampleResourceTags(methodName);
+    // Request gauge
+    assertEquals(0, sampleApp.reportedValue(new MetricName(
+        "request." + metricName + ".inflight", tags)));
+
+    // Response counter metric
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response." + metricName + ".200.cumulative", tags)));
+
+    // Response latency histogram
+    assertEquals(1, sampleApp.reportedValue(new MetricName(
+        "response." + metricName + ".200.latency", tags)));
+
+    // Tracing Span
+    WavefrontSpan span = sampleApp.reportedSpan("SampleResource." + methodName);
+    assertNotNull(span);
+    assertTrue(span.getTagsAsList().contains(new Pair<>("http.status_code", "200")));
+  }
+
   private void testCreate() throws IOException {
     assertEquals(204, invokePostRequest("sample/foo/bar"));
 
@@ -529,6 +1283,52 @@ public class JerseyAppReporterTest {
     return response.code();
   }
 
+  /**
+   * @param chunked whether to stream the entity without a content length.
+   */
+  private int invokePostRequest(String pathSegments, String entity, boolean chunked)
+      throws IOException {
+    HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(httpPort).
+        addPathSegments(pathSegments).build();
+    byte[] bytes = entity.getBytes(StandardCharsets.UTF_8);
+    Request request = new Request.Builder().url(url).
+        post(new RequestBody() {
+          @Override
+          public MediaType contentType() {
+            return MediaType.parse("text/plain");
+          }
+
+          @Override
+          public long contentLength() {
+            return chunked ? -1 : bytes.length;
+          }
+
+          @Override
+          public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(bytes);
+          }
+        }).build();
+    OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
+    try (Response response = okHttpClient.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+
+  /**
+   * @param headers names and values of the request headers.
+   * @return the response, to be closed by the caller.
+   */
+  private Response executeGetRequest(String pathSegments, String... headers) throws IOException {
+    HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(httpPort).
+        addPathSegments(pathSegments).build();
+    Request.Builder requestBuilder = new Request.Builder().url(url);
+    for (int i = 0; i < headers.length; i += 2) {
+      requestBuilder.header(headers[i], headers[i + 1]);
+    }
+    OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
+    return okHttpClient.newCall(requestBuilder.build()).execute();
+  }
+
   private int invokeGetRequest(String pathSegments) throws IOException {
     HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(httpPort).
         addPathSegments(pathSegments).build();
@@ -539,6 +1339,29 @@ public class JerseyAppReporterTest {
     return response.code();
   }
 
+  /**
+   * @return the status code of the response, once received.
+   */
+  private CompletableFuture<Integer> invokeGetRequestAsync(String pathSegments) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return invokeGetRequest(pathSegments);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  private int invokeHeadRequest(String pathSegments) throws IOException {
+    HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(httpPort).
+        addPathSegments(pathSegments).build();
+    Request request = new Request.Builder().url(url).head().build();
+    OkHttpClient okHttpClient = new OkHttpClient().newBuilder().build();
+    try (Response response = okHttpClient.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+
   private int invokePutRequest(String pathSegments) throws IOException {
     HttpUrl url = new HttpUrl.Builder().scheme("http").host("localhost").port(httpPort).
         addPathSegments(pathSegments).build();
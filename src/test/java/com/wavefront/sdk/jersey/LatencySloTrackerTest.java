@@ -0,0 +1,86 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the good and bad response counts and burn rates of {@link LatencySloTracker}.
+ */
+public class LatencySloTrackerTest {
+  private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  @Test
+  public void testGoodAndBadResponses() {
+    CountingHandle good = new CountingHandle();
+    CountingHandle bad = new CountingHandle();
+    LatencySloTracker tracker = new LatencySloTracker(100, 0.9, good, bad);
+
+    tracker.record(50, 200);
+    tracker.record(100, 404);
+    // too slow
+    tracker.record(101, 200);
+    // server error, however fast
+    tracker.record(1, 503);
+    assertEquals(2, good.count());
+    assertEquals(2, bad.count());
+  }
+
+  @Test
+  public void testBurnRate() {
+    LatencySloTracker tracker = new LatencySloTracker(100, 0.9, new CountingHandle(),
+        new CountingHandle());
+    assertEquals(0, tracker.burnRate(MINUTE_NANOS), 0);
+
+    for (int i = 0; i < 9; i++) {
+      tracker.record(10, 200);
+    }
+    // 0 bad responses out of 9
+    assertEquals(0, tracker.burnRate(MINUTE_NANOS), 0);
+    tracker.record(1000, 200);
+    // 1 bad response out of 10 consumes the 10% budget at the sustainable rate
+    assertEquals(1, tracker.burnRate(MINUTE_NANOS), 0.0001);
+    for (int i = 0; i < 10; i++) {
+      tracker.record(1000, 200);
+    }
+    // 11 bad responses out of 20
+    assertEquals(5.5, tracker.burnRate(TimeUnit.HOURS.toNanos(1)), 0.0001);
+  }
+
+  @Test
+  public void testThresholdRoundedUp() {
+    LatencySloTracker.Config config = new LatencySloTracker.Config(1500, TimeUnit.MICROSECONDS,
+        0.99);
+    assertEquals(2, config.threshold(TimeUnit.MILLISECONDS));
+    assertEquals(1500, config.threshold(TimeUnit.MICROSECONDS));
+    assertEquals(1_500_000, config.threshold(TimeUnit.NANOSECONDS));
+    // a threshold finer than the unit does not become 0
+    assertEquals(1, new LatencySloTracker.Config(1, TimeUnit.NANOSECONDS, 0.99).
+        threshold(TimeUnit.SECONDS));
+    assertEquals(3, new LatencySloTracker.Config(3000, TimeUnit.MILLISECONDS, 0.99).
+        threshold(TimeUnit.SECONDS));
+  }
+
+  private static final class CountingHandle implements CounterHandle {
+    private final LongAdder count = new LongAdder();
+
+    @Override
+    public void inc() {
+      count.increment();
+    }
+
+    @Override
+    public void inc(long n) {
+      count.add(n);
+    }
+
+    long count() {
+      return count.sum();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.WavefrontSender;
+import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.GaugeHandle;
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the JSON served by {@link MetricsSnapshotResource}.
+ */
+public class MetricsSnapshotResourceTest {
+  private WavefrontJerseyReporter reporter;
+  private MetricsSnapshotResource resource;
+
+  @Before
+  public void setup() {
+    reporter = new WavefrontJerseyReporter.Builder(new ApplicationTags.Builder("wavefront",
+        "snapshot").build()).withSource("snapshot-test").build(noOpSender());
+    resource = new MetricsSnapshotResource(reporter);
+
+    Map<String, String> tags = new HashMap<>();
+    tags.put("service", "snapshot");
+    tags.put("cluster", "prod");
+    reporter.counter(new MetricName("response.bar.GET.200.cumulative", tags)).inc(3);
+    reporter.deltaCounter(new MetricName("response.bar.GET.200.aggregated_per_application",
+        Collections.singletonMap("source", "wavefront-provided"))).inc();
+    reporter.histogram(new MetricName("response.bar.GET.200.latency", tags)).update(10);
+    GaugeHandle inflight = reporter.gauge(new MetricName("request.bar.GET.inflight", tags));
+    inflight.inc();
+    inflight.inc();
+    inflight.dec();
+    reporter.counter(new MetricName("request.shed", tags)).inc();
+  }
+
+  @After
+  public void tearDown() {
+    reporter.stop();
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    String snapshot = getSnapshot(null);
+    // sorted by name, with sorted tags
+    assertTrue(snapshot, snapshot.startsWith("{\"metrics\":[" +
+        "{\"name\":\"request.bar.GET.inflight\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"gauge\",\"value\":1}," +
+        "{\"name\":\"request.shed\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"counter\",\"count\":1}," +
+        "{\"name\":\"response.bar.GET.200.aggregated_per_application\"," +
+        "\"tags\":{\"source\":\"wavefront-provided\"}," +
+        "\"type\":\"delta_counter\",\"count\":1}," +
+        "{\"name\":\"response.bar.GET.200.cumulative\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"counter\",\"count\":3}," +
+        "{\"name\":\"response.bar.GET.200.latency\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"histogram\",\"count\":1,"));
+    assertTrue(snapshot, snapshot.endsWith("}]}"));
+  }
+
+  @Test
+  public void testSnapshotFilteredByPrefix() throws IOException {
+    assertEquals("{\"metrics\":[" +
+        "{\"name\":\"request.bar.GET.inflight\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"gauge\",\"value\":1}," +
+        "{\"name\":\"request.shed\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"counter\",\"count\":1}]}", getSnapshot("request."));
+    assertEquals("{\"metrics\":[]}", getSnapshot("unknown."));
+    assertEquals("{\"metrics\":[{\"name\":\"response.bar.GET.200.latency\"," +
+        "\"tags\":{\"cluster\":\"prod\",\"service\":\"snapshot\"}," +
+        "\"type\":\"histogram\",\"count\":1,\"p50\":10,\"p99\":10,\"max\":10}]}",
+        getSnapshot("response.bar.GET.200.latency"));
+  }
+
+  @Test
+  public void testUnavailableUntilReporterBuilt() {
+    MetricsSnapshotResource unavailable = new MetricsSnapshotResource(() -> null);
+    assertEquals(503, unavailable.getSnapshot(null).getStatus());
+  }
+
+  private String getSnapshot(String prefix) throws IOException {
+    Response response = resource.getSnapshot(prefix);
+    assertEquals(200, response.getStatus());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(outputStream);
+    return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return a sender ignoring everything, the reporter is never started.
+   */
+  private static WavefrontSender noOpSender() {
+    return (WavefrontSender) Proxy.newProxyInstance(WavefrontSender.class.getClassLoader(),
+        new Class<?>[]{WavefrontSender.class}, (proxy, method, args) ->
+            method.getReturnType().isPrimitive() && method.getReturnType() != void.class ?
+                Array.get(Array.newInstance(method.getReturnType(), 1), 0) : null);
+  }
+}
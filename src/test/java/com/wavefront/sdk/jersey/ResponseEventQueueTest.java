@@ -0,0 +1,159 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the asynchronous recording of response events by {@link ResponseEventQueue}.
+ */
+public class ResponseEventQueueTest {
+
+  @Test
+  public void testEventsRecordedInOrder() throws InterruptedException {
+    List<Integer> statuses = new CopyOnWriteArrayList<>();
+    CountingHandle dropped = new CountingHandle();
+    ResponseEventQueue queue = new ResponseEventQueue(4,
+        (route, status, latency, cpuNanos, requestBytes) -> statuses.add(status), dropped);
+
+    for (int i = 0; i < 100; i++) {
+      while (!queue.offer(null, 200 + i, i, -1, -1)) {
+        Thread.sleep(1);
+      }
+    }
+    queue.close();
+    assertEquals(100, statuses.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(200 + i, (int) statuses.get(i));
+    }
+    assertEquals(0, dropped.count());
+  }
+
+  @Test
+  public void testFullQueueRejectsEvents() throws InterruptedException {
+    CountDownLatch recording = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    LongAdder recorded = new LongAdder();
+    ResponseEventQueue queue = new ResponseEventQueue(2,
+        (route, status, latency, cpuNanos, requestBytes) -> {
+          recording.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          recorded.increment();
+        }, new CountingHandle());
+
+    // the consumer blocks on the first event while two more fill the queue
+    assertTrue(queue.offer(null, 200, 1, -1, -1));
+    assertTrue(recording.await(5, TimeUnit.SECONDS));
+    assertTrue(queue.offer(null, 200, 2, -1, -1));
+    assertTrue(queue.offer(null, 200, 3, -1, -1));
+    assertFalse(queue.offer(null, 200, 4, -1, -1));
+
+    release.countDown();
+    queue.close();
+    assertEquals(3, recorded.sum());
+  }
+
+  @Test
+  public void testCloseDrainsPendingEvents() {
+    LongAdder recorded = new LongAdder();
+    ResponseEventQueue queue = new ResponseEventQueue(1024,
+        (route, status, latency, cpuNanos, requestBytes) -> recorded.increment(),
+        new CountingHandle());
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(queue.offer(null, 200, i, -1, -1));
+    }
+    queue.close();
+    assertTrue(queue.isClosed());
+    assertEquals(1000, recorded.sum());
+
+    // rejected once closed, so that the caller records them itself
+    assertFalse(queue.offer(null, 200, 0, -1, -1));
+    queue.close();
+    assertEquals(1000, recorded.sum());
+  }
+
+  @Test
+  public void testSinkFailuresCountedAsDropped() {
+    LongAdder recorded = new LongAdder();
+    CountingHandle dropped = new CountingHandle();
+    ResponseEventQueue queue = new ResponseEventQueue(16,
+        (route, status, latency, cpuNanos, requestBytes) -> {
+          if (status == 500) {
+            throw new IllegalStateException("sink error");
+          }
+          recorded.increment();
+        }, dropped);
+
+    assertTrue(queue.offer(null, 200, 1, -1, -1));
+    assertTrue(queue.offer(null, 500, 1, -1, -1));
+    assertTrue(queue.offer(null, 200, 1, -1, -1));
+    queue.close();
+    // the failure of one event does not affect the others
+    assertEquals(2, recorded.sum());
+    assertEquals(1, dropped.count());
+  }
+
+  @Test
+  public void testEventsPendingAfterCloseTimeoutCountedAsDropped() throws InterruptedException {
+    CountDownLatch recording = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountingHandle dropped = new CountingHandle();
+    ResponseEventQueue queue = new ResponseEventQueue(16,
+        (route, status, latency, cpuNanos, requestBytes) -> {
+          recording.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }, dropped);
+
+    assertTrue(queue.offer(null, 200, 1, -1, -1));
+    assertTrue(recording.await(5, TimeUnit.SECONDS));
+    assertTrue(queue.offer(null, 200, 2, -1, -1));
+    assertTrue(queue.offer(null, 200, 3, -1, -1));
+    // gives up on the stuck sink
+    queue.close();
+    assertEquals(0, dropped.count());
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dropped.count() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, dropped.count());
+  }
+
+  private static final class CountingHandle implements CounterHandle {
+    private final LongAdder count = new LongAdder();
+
+    @Override
+    public void inc() {
+      count.increment();
+    }
+
+    @Override
+    public void inc(long n) {
+      count.add(n);
+    }
+
+    long count() {
+      return count.sum();
+    }
+  }
+}
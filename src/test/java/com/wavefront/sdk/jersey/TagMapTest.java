@@ -0,0 +1,97 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link TagMap} honours the {@link Map} contract of the plain maps it replaces.
+ */
+public class TagMapTest {
+
+  @Test
+  public void testEqualToPlainMaps() {
+    Map<String, String> tags = tags("service", "alerting", "cluster", "prod", "shard", "primary");
+    TagMap tagMap = TagMap.of(tags);
+
+    assertEquals(tags, tagMap);
+    assertEquals(tagMap, tags);
+    assertEquals(tags.hashCode(), tagMap.hashCode());
+    assertEquals(tagMap, TagMap.of(new HashMap<>(tags)));
+
+    // names built with plain maps and with tag maps are the same metric
+    assertEquals(new MetricName("response.completed", tags),
+        new MetricName("response.completed", tagMap));
+    assertEquals(new MetricName("response.completed", tags).hashCode(),
+        new MetricName("response.completed", tagMap).hashCode());
+
+    Map<String, String> other = tags("service", "alerting", "cluster", "prod", "shard", "other");
+    assertFalse(tagMap.equals(other));
+    assertFalse(tagMap.equals(TagMap.of(other)));
+    assertFalse(tagMap.equals(TagMap.of(tags("service", "alerting", "cluster", "prod"))));
+  }
+
+  @Test
+  public void testLookupsAndIteration() {
+    TagMap tagMap = TagMap.of(tags("service", "alerting", "cluster", "prod", "shard", "primary"));
+
+    assertEquals(3, tagMap.size());
+    assertEquals("prod", tagMap.get("cluster"));
+    assertTrue(tagMap.containsKey("shard"));
+    assertNull(tagMap.get("source"));
+    assertFalse(tagMap.containsKey(1));
+    List<String> keys = new ArrayList<>(tagMap.keySet());
+    assertEquals(Arrays.asList("cluster", "service", "shard"), keys);
+    assertSame(tagMap, TagMap.of(tagMap));
+  }
+
+  @Test
+  public void testNullValues() {
+    Map<String, String> tags = tags("service", "alerting", "cluster", null);
+    TagMap tagMap = TagMap.of(tags);
+
+    assertEquals(tags, tagMap);
+    assertEquals(tags.hashCode(), tagMap.hashCode());
+    assertTrue(tagMap.containsKey("cluster"));
+    assertNull(tagMap.get("cluster"));
+  }
+
+  @Test
+  public void testImmutable() {
+    TagMap tagMap = TagMap.of(tags("service", "alerting"));
+    try {
+      tagMap.put("cluster", "prod");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+      // shared by every metric name using it
+    }
+    try {
+      tagMap.entrySet().clear();
+      fail();
+    } catch (UnsupportedOperationException expected) {
+      // shared by every metric name using it
+    }
+    assertEquals(1, tagMap.size());
+  }
+
+  private static Map<String, String> tags(String... keysAndValues) {
+    Map<String, String> tags = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      tags.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return tags;
+  }
+}
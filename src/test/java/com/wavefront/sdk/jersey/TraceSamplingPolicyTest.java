@@ -0,0 +1,122 @@
+package com.wavefront.sdk.jersey;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static com.wavefront.sdk.jersey.TraceSamplingPolicy.Decision.DROP;
+import static com.wavefront.sdk.jersey.TraceSamplingPolicy.Decision.SAMPLE;
+import static com.wavefront.sdk.jersey.TraceSamplingPolicy.Decision.SAMPLE_ERRORS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the sampling decisions of {@link TraceSamplingPolicy}.
+ */
+public class TraceSamplingPolicyTest {
+  private static final String ROUTE = "sample.foo.bar.GET";
+
+  @Test
+  public void testProbability() {
+    MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    TraceSamplingPolicy never = new TraceSamplingPolicy.Builder().probability(0).build();
+    TraceSamplingPolicy always = new TraceSamplingPolicy.Builder().probability(1).build();
+    TraceSamplingPolicy half = new TraceSamplingPolicy.Builder().probability(0.5).build();
+    int sampled = 0;
+    for (int i = 0; i < 10_000; i++) {
+      assertEquals(DROP, never.decide(headers, ROUTE));
+      assertEquals(SAMPLE, always.decide(headers, ROUTE));
+      if (half.decide(headers, ROUTE) == SAMPLE) {
+        sampled++;
+      }
+    }
+    assertTrue("sampled " + sampled, sampled > 4_000 && sampled < 6_000);
+  }
+
+  @Test
+  public void testPerRouteLimiter() {
+    MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    TraceSamplingPolicy policy = new TraceSamplingPolicy.Builder().
+        maxTracesPerSecondPerRoute(5).build();
+    int sampled = 0;
+    for (int i = 0; i < 100; i++) {
+      if (policy.decide(headers, ROUTE) == SAMPLE) {
+        sampled++;
+      }
+    }
+    // at most two one second windows are crossed
+    assertTrue("sampled " + sampled, sampled >= 5 && sampled <= 10);
+    // the limit applies per route
+    assertEquals(SAMPLE, policy.decide(headers, "sample.foo.bar.POST"));
+  }
+
+  @Test
+  public void testAlwaysSampleErrors() {
+    MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    assertEquals(SAMPLE_ERRORS, new TraceSamplingPolicy.Builder().probability(0).
+        alwaysSampleErrors(true).build().decide(headers, ROUTE));
+    assertEquals(DROP, new TraceSamplingPolicy.Builder().probability(0).
+        alwaysSampleErrors(false).build().decide(headers, ROUTE));
+    // sampled requests are traced whatever their response
+    assertEquals(SAMPLE, new TraceSamplingPolicy.Builder().probability(1).
+        alwaysSampleErrors(true).build().decide(headers, ROUTE));
+  }
+
+  @Test
+  public void testUpstreamDecision() {
+    TraceSamplingPolicy never = new TraceSamplingPolicy.Builder().probability(0).
+        honourUpstreamDecision(true).build();
+    TraceSamplingPolicy always = new TraceSamplingPolicy.Builder().probability(1).
+        honourUpstreamDecision(true).build();
+
+    // B3
+    assertEquals(SAMPLE, never.decide(headers("X-B3-Sampled", "1"), ROUTE));
+    assertEquals(DROP, always.decide(headers("X-B3-Sampled", "0"), ROUTE));
+    assertEquals(SAMPLE, never.decide(headers("X-B3-Flags", "1"), ROUTE));
+    assertEquals(SAMPLE, never.decide(headers("b3",
+        "80f198ee56343ba864fe8b2a57d3eff7-e457b5a2e4d86bd1-1-05e3ac9a4f6e3b90"), ROUTE));
+    assertEquals(DROP, always.decide(headers("b3",
+        "80f198ee56343ba864fe8b2a57d3eff7-e457b5a2e4d86bd1-0"), ROUTE));
+    assertEquals(SAMPLE, never.decide(headers("b3", "d"), ROUTE));
+    assertEquals(DROP, always.decide(headers("b3", "0"), ROUTE));
+
+    // W3C trace context
+    assertEquals(SAMPLE, never.decide(headers("traceparent",
+        "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01"), ROUTE));
+    assertEquals(DROP, always.decide(headers("traceparent",
+        "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-00"), ROUTE));
+
+    // WavefrontTracer
+    assertEquals(SAMPLE, never.decide(headers("wf-ot-sample", "true"), ROUTE));
+    assertEquals(DROP, always.decide(headers("wf-ot-sample", "false"), ROUTE));
+
+    // Jaeger, possibly URL encoded, sampled if bit 1 of the flags is set
+    assertEquals(SAMPLE, never.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07:a2fb4a1d1a96d312:0:1"), ROUTE));
+    assertEquals(SAMPLE, never.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07%3Aa2fb4a1d1a96d312%3A0%3A3"), ROUTE));
+    assertEquals(DROP, always.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07:a2fb4a1d1a96d312:0:0"), ROUTE));
+    assertEquals(DROP, always.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07:a2fb4a1d1a96d312:0:2"), ROUTE));
+
+    // malformed headers carry no decision
+    assertEquals(SAMPLE, always.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07:a2fb4a1d1a96d312"), ROUTE));
+    assertEquals(SAMPLE, always.decide(headers("uber-trace-id",
+        "5b3d6d4a9c2e1f07:a2fb4a1d1a96d312:0:x"), ROUTE));
+    assertEquals(SAMPLE, always.decide(headers("wf-ot-sample", "maybe"), ROUTE));
+    assertEquals(SAMPLE, always.decide(headers("traceparent", "00-0af7651916cd"), ROUTE));
+
+    // the upstream decision is ignored unless honoured
+    assertEquals(DROP, new TraceSamplingPolicy.Builder().probability(0).build().
+        decide(headers("wf-ot-sample", "true"), ROUTE));
+  }
+
+  private static MultivaluedMap<String, String> headers(String name, String value) {
+    MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+    headers.add(name, value);
+    return headers;
+  }
+}
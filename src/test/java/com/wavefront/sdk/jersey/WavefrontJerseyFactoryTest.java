@@ -0,0 +1,114 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.sdk.jersey.reporter.WavefrontJerseyReporter;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the requests served by the filter of a lazily initialized
+ * {@link WavefrontJerseyFactory}.
+ */
+public class WavefrontJerseyFactoryTest {
+
+  @Test
+  public void testRequestsServedBeforeAndAfterInitialization() throws Exception {
+    String applicationTags = yamlFile(
+        "application: \"wavefront\"\n" +
+        "service: \"factory\"\n" +
+        "cluster: \"prod\"\n" +
+        "shard: \"primary\"\n");
+    // nothing listens on the proxy ports, the sender fails in the background
+    String reportingConfig = yamlFile(
+        "reportingMechanism: \"proxy\"\n" +
+        "proxyHost: \"localhost\"\n" +
+        "proxyMetricsPort: 2878\n" +
+        "proxyDistributionsPort: 40000\n" +
+        "proxyTracingPort: 30000\n" +
+        "source: \"factory-test\"\n" +
+        "reportTraces: true\n");
+    WavefrontJerseyFactory factory = new WavefrontJerseyFactory(applicationTags,
+        reportingConfig, true);
+    ApplicationHandler handler = new ApplicationHandler(new ResourceConfig().
+        register(new FactoryResource()).register(factory.getWavefrontJerseyFilter()));
+
+    // served before the initialization is started, which the constructor does not do
+    assertEquals(200, get(handler));
+    assertEquals(200, get(handler));
+    assertFalse(factory.ready().isDone());
+    assertNull(factory.getWavefrontJerseyReporter());
+
+    assertSame(factory.ready(), factory.start());
+    factory.ready().get(30, TimeUnit.SECONDS);
+    // starting again does nothing
+    assertSame(factory.ready(), factory.start());
+    WavefrontJerseyReporter reporter = factory.getWavefrontJerseyReporter();
+    assertNotNull(reporter);
+    assertNotNull(factory.getWavefrontSender());
+    assertNotNull(factory.getWavefrontJaxrsClientFilter());
+
+    try {
+      assertEquals(200, get(handler));
+      // only the request served after the initialization is counted
+      assertTrue(snapshot(reporter, "response.factory.GET.200.cumulative").
+          contains("\"count\":1"));
+      // the requests served before are balanced in the inflight gauge
+      assertTrue(snapshot(reporter, "request.factory.GET.inflight").contains("\"value\":0"));
+      assertTrue(snapshot(reporter, "deferred.updates.dropped").
+          contains("\"name\":\"deferred.updates.dropped\""));
+    } finally {
+      reporter.stop();
+    }
+  }
+
+  private static int get(ApplicationHandler handler) throws Exception {
+    ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+        URI.create("http://localhost/factory"), "GET", null, new MapPropertiesDelegate(),
+        handler.getConfiguration());
+    return handler.apply(request).get().getStatus();
+  }
+
+  private static String snapshot(WavefrontJerseyReporter reporter, String prefix)
+      throws IOException {
+    StringWriter writer = new StringWriter();
+    reporter.writeSnapshot(writer, prefix);
+    return writer.toString();
+  }
+
+  private static String yamlFile(String content) throws IOException {
+    File file = File.createTempFile("wavefront-jersey-factory", ".yaml");
+    file.deleteOnExit();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.getPath();
+  }
+
+  @Path("/factory")
+  public static class FactoryResource {
+
+    @GET
+    public String get() {
+      return "don't care";
+    }
+  }
+}
@@ -8,22 +8,40 @@ import com.wavefront.opentracing.WavefrontSpan;
 import com.wavefront.opentracing.WavefrontTracer;
 import com.wavefront.opentracing.reporting.Reporter;
 import com.wavefront.sdk.common.application.ApplicationTags;
+import com.wavefront.sdk.jersey.WavefrontIgnore;
 import com.wavefront.sdk.jersey.WavefrontJerseyFilter;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver;
+
+import io.opentracing.Tracer;
 
 import org.eclipse.jetty.server.ServerConnector;
 
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Priorities;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 import io.dropwizard.Application;
@@ -37,10 +55,29 @@ public class SampleApp extends Application<Configuration> {
   public static final String CLUSTER = "prod";
   public static final String SERVICE = "alerting";
   public static final String SHARD = "secondary";
+  private final Consumer<WavefrontJerseyFilter.Builder> filterCustomizer;
   private int httpPort;
+  private WavefrontJerseyFilter filter;
+  private Tracer tracer;
 
   private final ConcurrentMap<MetricName, AtomicInteger> cache = new ConcurrentHashMap<>();
   private final ConcurrentMap<String, WavefrontSpan> spanCache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<MetricName, Long> lastHistogramValues = new ConcurrentHashMap<>();
+  private final Set<MetricName> gauges = ConcurrentHashMap.newKeySet();
+  private final Set<MetricName> resolvedHistograms = ConcurrentHashMap.newKeySet();
+  private final BlockingQueue<AsyncResponse> heldResponses = new LinkedBlockingQueue<>();
+
+  public SampleApp() {
+    this(builder -> {
+    });
+  }
+
+  /**
+   * @param filterCustomizer customizes the WavefrontJerseyFilter of the app.
+   */
+  public SampleApp(Consumer<WavefrontJerseyFilter.Builder> filterCustomizer) {
+    this.filterCustomizer = filterCustomizer;
+  }
 
   private AtomicInteger computeIfAbsent(MetricName metricName) {
     return cache.computeIfAbsent(metricName, key -> new AtomicInteger());
@@ -65,8 +102,19 @@ public class SampleApp extends Application<Configuration> {
       httpPort = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
     });
     environment.jersey().register(new SampleResource());
+    environment.jersey().register(new IgnoredResource());
+    // fails the response filtering of /sample/foo/bar/filtered before the WavefrontJerseyFilter
+    environment.jersey().getResourceConfig().register(new ContainerResponseFilter() {
+      @Override
+      public void filter(ContainerRequestContext requestContext,
+                         ContainerResponseContext responseContext) {
+        if (requestContext.getUriInfo().getPath().endsWith("bar/filtered")) {
+          throw new IllegalStateException("response filter error");
+        }
+      }
+    }, Priorities.USER + 1);
     environment.getApplicationContext().setContextPath("/");
-    environment.jersey().register(new WavefrontJerseyFilter.Builder(new SdkReporter() {
+    SdkReporter sdkReporter = new SdkReporter() {
       @Override
       public void incrementCounter(MetricName metricName) {
         computeIfAbsent(metricName).incrementAndGet();
@@ -84,12 +132,15 @@ public class SampleApp extends Application<Configuration> {
 
       @Override
       public void updateHistogram(MetricName metricName, long latencyMillis) {
+        lastHistogramValues.put(metricName, latencyMillis);
         computeIfAbsent(metricName).incrementAndGet();
       }
 
       @Override
       public void registerGauge(MetricName metricName, AtomicInteger value) {
-        computeIfAbsent(metricName);
+        // track the live gauge value
+        cache.putIfAbsent(metricName, value);
+        gauges.add(metricName);
       }
 
       @Override
@@ -101,7 +152,8 @@ public class SampleApp extends Application<Configuration> {
       public void stop() {
         // no-op
       }
-    }, applicationTags).withTracer(new WavefrontTracer.Builder(new Reporter() {
+    };
+    tracer = new WavefrontTracer.Builder(new Reporter() {
       @Override
       public void report(WavefrontSpan span) {
         spanCache.putIfAbsent(span.getOperationName(), span);
@@ -121,13 +173,56 @@ public class SampleApp extends Application<Configuration> {
       public void flush() {
         spanCache.clear();
       }
-    }, applicationTags).build()).build());
+    }, applicationTags).build();
+    WavefrontJerseyFilter.Builder filterBuilder =
+        new WavefrontJerseyFilter.Builder(new HandleRecordingReporter(sdkReporter),
+            applicationTags).withTracer(tracer);
+    filterCustomizer.accept(filterBuilder);
+    filter = filterBuilder.build();
+    environment.jersey().register(filter);
+  }
+
+  public WavefrontJerseyFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * @return the tracer of the filter, unless replaced by the filter customizer.
+   */
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * @return the response of the next request to /sample/foo/bar/held, to be resumed by the
+   * caller, or null if none arrives within 5 seconds.
+   */
+  public AsyncResponse takeHeldResponse() throws InterruptedException {
+    return heldResponses.poll(5, TimeUnit.SECONDS);
   }
 
   public int reportedValue(MetricName metricName) {
     return computeIfAbsent(metricName).get();
   }
 
+  public boolean isGaugeRegistered(MetricName metricName) {
+    return gauges.contains(metricName);
+  }
+
+  /**
+   * @return true if the filter resolved a handle to the histogram, whether updated or not.
+   */
+  public boolean isHistogramResolved(MetricName metricName) {
+    return resolvedHistograms.contains(metricName);
+  }
+
+  /**
+   * @return the last value of a histogram, or null if it was not updated.
+   */
+  public Long lastHistogramValue(MetricName metricName) {
+    return lastHistogramValues.get(metricName);
+  }
+
   public WavefrontSpan reportedSpan(String operationName) {
     return spanCache.get(operationName);
   }
@@ -145,6 +240,14 @@ public class SampleApp extends Application<Configuration> {
       // no-op
     }
 
+    // C => create, echoing the request entity
+    @POST
+    @Path("/bar/echo")
+    @Consumes(MediaType.TEXT_PLAIN)
+    public String barEcho(String entity) {
+      return entity;
+    }
+
     // R => read
     @GET
     @Path("/bar/{id}")
@@ -162,6 +265,40 @@ public class SampleApp extends Application<Configuration> {
       return "don't care";
     }
 
+    // R => getAll, resumed on another thread
+    @GET
+    @Path("/bar/async")
+    public void getAllAsync(@Suspended AsyncResponse asyncResponse) {
+      CompletableFuture.runAsync(() -> asyncResponse.resume("don't care"));
+    }
+
+    // R => getAll, held until resumed by the test
+    @GET
+    @Path("/bar/held")
+    public void getAllHeld(@Suspended AsyncResponse asyncResponse) {
+      heldResponses.add(asyncResponse);
+    }
+
+    // R => getAll, completed on another thread
+    @GET
+    @Path("/bar/stage")
+    public CompletionStage<String> getAllStage() {
+      return CompletableFuture.supplyAsync(() -> "don't care");
+    }
+
+    // R => getAll, whose response filtering fails
+    @GET
+    @Path("/bar/filtered")
+    public String getFiltered() {
+      return "don't care";
+    }
+
+    // R => read, through a sub-resource locator
+    @Path("/bar/{id}/parts")
+    public PartResource parts() {
+      return new PartResource();
+    }
+
     // U => update
     @PUT
     @Path("/bar/{id}")
@@ -177,6 +314,97 @@ public class SampleApp extends Application<Configuration> {
     }
   }
 
+  // returned by a sub-resource locator, so not part of the application model at startup
+  public class PartResource {
+
+    @GET
+    @Path("/{partId}")
+    public String getPart(@PathParam("partId") String partId) {
+      return partId;
+    }
+  }
+
+  @Path("/sample/ignored")
+  @Produces(MediaType.TEXT_PLAIN)
+  @WavefrontIgnore
+  public class IgnoredResource {
+
+    @GET
+    public String getIgnored() {
+      return "don't care";
+    }
+  }
+
+  /**
+   * Reporter resolving handles through the name based API of its delegate, which records the
+   * histograms the filter resolves.
+   */
+  private final class HandleRecordingReporter implements SdkReporter, MetricHandleResolver {
+    private final SdkReporter delegate;
+    private final MetricHandleResolver resolver;
+
+    HandleRecordingReporter(SdkReporter delegate) {
+      this.delegate = delegate;
+      this.resolver = MetricHandleResolver.of(delegate);
+    }
+
+    @Override
+    public CounterHandle counter(MetricName metricName) {
+      return resolver.counter(metricName);
+    }
+
+    @Override
+    public CounterHandle deltaCounter(MetricName metricName) {
+      return resolver.deltaCounter(metricName);
+    }
+
+    @Override
+    public HistogramHandle histogram(MetricName metricName) {
+      resolvedHistograms.add(metricName);
+      return resolver.histogram(metricName);
+    }
+
+    @Override
+    public GaugeHandle gauge(MetricName metricName) {
+      return resolver.gauge(metricName);
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName) {
+      delegate.incrementCounter(metricName);
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName, long n) {
+      delegate.incrementCounter(metricName, n);
+    }
+
+    @Override
+    public void incrementDeltaCounter(MetricName metricName) {
+      delegate.incrementDeltaCounter(metricName);
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long value) {
+      delegate.updateHistogram(metricName, value);
+    }
+
+    @Override
+    public void registerGauge(MetricName metricName, AtomicInteger value) {
+      delegate.registerGauge(metricName, value);
+    }
+
+    @Override
+    public void start() {
+      delegate.start();
+    }
+
+    @Override
+    public void stop() {
+      delegate.stop();
+    }
+  }
+
   public int getHttpPort() {
     return httpPort;
   }
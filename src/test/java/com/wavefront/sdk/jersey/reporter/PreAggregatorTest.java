@@ -0,0 +1,130 @@
+package com.wavefront.sdk.jersey.reporter;
+
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.CounterHandle;
+import com.wavefront.sdk.jersey.reporter.MetricHandleResolver.HistogramHandle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the merging of pre-aggregated counters and histograms into the registry.
+ */
+public class PreAggregatorTest {
+  private static final MetricName METRIC_NAME = new MetricName("metric",
+      Collections.emptyMap());
+
+  @Test
+  public void testCounterDeltasAcrossFlushes() {
+    List<Long> deltas = new ArrayList<>();
+    PreAggregator preAggregator = new PreAggregator(1000);
+    CounterHandle counter = preAggregator.counter(METRIC_NAME, key -> new CounterHandle() {
+      @Override
+      public void inc() {
+        deltas.add(1L);
+      }
+
+      @Override
+      public void inc(long n) {
+        deltas.add(n);
+      }
+    });
+
+    counter.inc();
+    counter.inc(2);
+    // nothing reaches the registry before a flush
+    assertEquals(0, deltas.size());
+    preAggregator.flush();
+    assertEquals(Collections.singletonList(3L), deltas);
+
+    // an idle counter is not touched
+    preAggregator.flush();
+    assertEquals(1, deltas.size());
+
+    counter.inc(5);
+    counter.inc();
+    preAggregator.flush();
+    assertEquals(2, deltas.size());
+    assertEquals(6L, (long) deltas.get(1));
+  }
+
+  @Test
+  public void testHistogramSamplesConcurrentWithFlush() throws InterruptedException {
+    int threads = 4;
+    int samplesPerThread = 50_000;
+    ConcurrentLinkedQueue<Long> merged = new ConcurrentLinkedQueue<>();
+    PreAggregator preAggregator = new PreAggregator(1000);
+    HistogramHandle histogram = preAggregator.histogram(METRIC_NAME, key -> merged::add);
+
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> writers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread writer = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 1; i <= samplesPerThread; i++) {
+          histogram.update(i);
+        }
+      });
+      writer.start();
+      writers.add(writer);
+    }
+    AtomicBoolean flushing = new AtomicBoolean(true);
+    Thread flusher = new Thread(() -> {
+      while (flushing.get()) {
+        preAggregator.flush();
+      }
+    });
+    flusher.start();
+
+    start.countDown();
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    flushing.set(false);
+    flusher.join();
+    preAggregator.flush();
+
+    // every sample is merged exactly once, whether through a buffer or directly
+    assertEquals(threads * samplesPerThread, merged.size());
+    long sum = 0;
+    for (long sample : merged) {
+      sum += sample;
+    }
+    assertEquals((long) threads * samplesPerThread * (samplesPerThread + 1) / 2, sum);
+    // the buffers have been drained, nothing is merged twice
+    preAggregator.flush();
+    assertEquals(threads * samplesPerThread, merged.size());
+  }
+
+  @Test
+  public void testHistogramSamplesMergedOnFlush() {
+    List<Long> merged = new ArrayList<>();
+    PreAggregator preAggregator = new PreAggregator(1000);
+    HistogramHandle histogram = preAggregator.histogram(METRIC_NAME, key -> merged::add);
+
+    histogram.update(3);
+    histogram.update(7);
+    assertEquals(0, merged.size());
+    preAggregator.flush();
+    assertEquals(2, merged.size());
+    assertEquals(10L, merged.get(0) + merged.get(1));
+
+    // the next buffer keeps accepting samples after the swap
+    histogram.update(11);
+    preAggregator.stop();
+    assertEquals(3, merged.size());
+    assertEquals(11L, (long) merged.get(2));
+  }
+}
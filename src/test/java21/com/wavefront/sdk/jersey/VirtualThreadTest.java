@@ -0,0 +1,128 @@
+package com.wavefront.sdk.jersey;
+
+import com.wavefront.internal.reporter.SdkReporter;
+import com.wavefront.internal_reporter_java.io.dropwizard.metrics5.MetricName;
+import com.wavefront.sdk.common.application.ApplicationTags;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests a request served on a virtual thread. Run against the multi-release jar, so that the
+ * JDK 21 version of {@link VirtualThreads} is used.
+ */
+public class VirtualThreadTest {
+  private final ConcurrentMap<MetricName, AtomicInteger> cache = new ConcurrentHashMap<>();
+
+  @Test
+  public void testRequestOnVirtualThread() throws Exception {
+    WavefrontJerseyFilter filter = new WavefrontJerseyFilter.Builder(new CountingReporter(),
+        new ApplicationTags.Builder("wavefront", "virtual").build()).build();
+    ApplicationHandler handler = new ApplicationHandler(new ResourceConfig().
+        register(new VirtualResource()).register(filter));
+    ContainerRequest request = new ContainerRequest(URI.create("http://localhost/"),
+        URI.create("http://localhost/virtual"), "GET", null, new MapPropertiesDelegate(),
+        handler.getConfiguration());
+
+    // the handler serves the request on the calling thread
+    AtomicReference<ContainerResponse> response = new AtomicReference<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread thread = Thread.ofVirtual().start(() -> {
+      try {
+        response.set(handler.apply(request).get());
+      } catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+    thread.join();
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    assertEquals(200, response.get().getStatus());
+    assertEquals(Boolean.TRUE, response.get().getEntity());
+    assertEquals(1, reportedValue("response.virtual.GET.200.cumulative"));
+    assertEquals(1, reportedValue("response.virtual.GET.200.latency"));
+    assertEquals(0, reportedValue("request.virtual.GET.inflight"));
+    // the CPU time of a virtual thread is not available
+    assertEquals(0, reportedValue("response.virtual.GET.200.cpu_ns"));
+    assertTrue(cache.keySet().stream().noneMatch(name -> name.getKey().endsWith(".cpu_ns")));
+  }
+
+  /**
+   * @return the value reported under a metric name, whatever its tags.
+   */
+  private int reportedValue(String metricName) {
+    int value = 0;
+    for (Map.Entry<MetricName, AtomicInteger> entry : cache.entrySet()) {
+      if (entry.getKey().getKey().equals(metricName)) {
+        value += entry.getValue().get();
+      }
+    }
+    return value;
+  }
+
+  @Path("/virtual")
+  public static class VirtualResource {
+
+    @GET
+    public Boolean isVirtual() {
+      return Thread.currentThread().isVirtual();
+    }
+  }
+
+  private final class CountingReporter implements SdkReporter {
+
+    @Override
+    public void incrementCounter(MetricName metricName) {
+      incrementCounter(metricName, 1);
+    }
+
+    @Override
+    public void incrementCounter(MetricName metricName, long n) {
+      cache.computeIfAbsent(metricName, key -> new AtomicInteger()).addAndGet((int) n);
+    }
+
+    @Override
+    public void incrementDeltaCounter(MetricName metricName) {
+      incrementCounter(metricName, 1);
+    }
+
+    @Override
+    public void updateHistogram(MetricName metricName, long value) {
+      incrementCounter(metricName, 1);
+    }
+
+    @Override
+    public void registerGauge(MetricName metricName, AtomicInteger value) {
+      cache.putIfAbsent(metricName, value);
+    }
+
+    @Override
+    public void start() {
+      // no-op
+    }
+
+    @Override
+    public void stop() {
+      // no-op
+    }
+  }
+}